@@ -16,8 +16,13 @@
 
 package org.vaadin.henrik.drawer;
 
+import java.io.Serializable;
 import java.util.Iterator;
 import java.util.Map;
+import java.util.Queue;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.atomic.AtomicIntegerFieldUpdater;
+import java.util.concurrent.atomic.AtomicReferenceFieldUpdater;
 
 import org.vaadin.henrik.drawer.widgetset.client.ui.VDrawer;
 
@@ -36,19 +41,56 @@ import com.vaadin.ui.Label;
 @ClientWidget(VDrawer.class)
 public class Drawer extends AbstractComponentContainer {
 
+    /**
+     * A change posted from outside the application lock, waiting to be
+     * applied on the next request.
+     * 
+     * @see Drawer#postDefaultCaption(String)
+     * @see Drawer#postDrawerOpen(boolean, boolean)
+     * @see Drawer#postDrawerComponent(Component)
+     */
+    private static class PendingUpdate implements Serializable {
+        private final int property;
+        private final Object value;
+        private final boolean animate;
+
+        private PendingUpdate(final int property, final Object value,
+                final boolean animate) {
+            this.property = property;
+            this.value = value;
+            this.animate = animate;
+        }
+    }
+
     public final static int DRAWER_HEIGHT_AUTO = -1;
-    private final static int DEFAULT_ANIMATION_DURATION = 500;
+    public final static int DRAWER_MAX_HEIGHT_NONE = -1;
+
+    private final static int PENDING_DEFAULT_CAPTION = 0;
+    private final static int PENDING_DRAWER_OPEN = 1;
+    private final static int PENDING_DRAWER_COMPONENT = 2;
+    private final static int PENDING_PROPERTY_COUNT = 3;
+
+    /*
+     * Field updaters, instead of atomic objects, so that drawers that never
+     * get updates from other threads don't carry them around.
+     */
+    @SuppressWarnings("rawtypes")
+    private static final AtomicReferenceFieldUpdater<Drawer, Queue> PENDING_UPDATES = AtomicReferenceFieldUpdater
+            .newUpdater(Drawer.class, Queue.class, "pendingUpdates");
+    private static final AtomicIntegerFieldUpdater<Drawer> WAITING_WORK_SCHEDULED = AtomicIntegerFieldUpdater
+            .newUpdater(Drawer.class, "waitingWorkScheduled");
 
-    private String caption = "";
+    /**
+     * The drawer's settings. Possibly shared with other drawers, so it's
+     * replaced, instead of changed, when a setting is changed.
+     */
+    private DrawerTemplate template = DrawerTemplate.DEFAULT;
 
     /** Should the next visibility toggle be animated. */
     private boolean animationRequested = false;
     private boolean drawerOpen = false;
 
-    private int animationDurationMillis = DEFAULT_ANIMATION_DURATION;
-
     private Component drawer = null;
-    private int drawerHeight = DRAWER_HEIGHT_AUTO;
 
     /**
      * This is needed to know whether the sent Component is just an empty
@@ -57,8 +99,50 @@ public class Drawer extends AbstractComponentContainer {
      */
     private boolean drawerHasContent = false;
 
+    /**
+     * Painted in place of the drawer component when there is none. It's
+     * attached along with the drawer, since Vaadin forgets the ids of detached
+     * components before each paint, and the placeholder would otherwise be
+     * sent as a new component every time. Created when first painted.
+     */
+    private Label placeholder = null;
+
+    /** Whether the current drawer component has been painted. */
+    private boolean drawerContentPainted = false;
+
     private boolean calculateHeaderWidth = true;
 
+    /**
+     * Whether a toggle from the client is waiting for the application's
+     * {@link ToggleThrottle}.
+     */
+    private boolean hasThrottledToggle = false;
+    private boolean throttledDrawerOpen = false;
+
+    /**
+     * The application's throttle, kept at hand so that the request path
+     * doesn't need to look it up.
+     */
+    private transient ToggleThrottle throttle = null;
+
+    private DrawerGroup group = null;
+
+    /**
+     * Updates posted by background threads. Producers only ever append to
+     * this, the queue is drained while holding the application lock. Created
+     * when the first update is posted.
+     */
+    private volatile Queue<PendingUpdate> pendingUpdates = null;
+
+    /**
+     * The applier of the application this drawer is attached to. Read by
+     * background threads, so that they don't need to walk up the tree.
+     */
+    private transient volatile PendingUpdateApplier applier = null;
+
+    /** 1 if this drawer is waiting in its {@link #applier}, 0 if not. */
+    private volatile int waitingWorkScheduled = 0;
+
     /**
      * <p>
      * Create a new {@link Drawer}.
@@ -108,28 +192,145 @@ public class Drawer extends AbstractComponentContainer {
         requestRepaint();
     }
 
+    /**
+     * <p>
+     * Create a new {@link Drawer} with shared settings.
+     * </p>
+     * 
+     * <p>
+     * The Drawer will initially be closed.
+     * </p>
+     * 
+     * @param template
+     *            The settings of the Drawer. The template is not copied, until
+     *            the Drawer's settings are changed.
+     * @param drawer
+     *            The {@link Component} to be shown in the drawer
+     * @return The new Drawer.
+     */
+    public static Drawer fromTemplate(final DrawerTemplate template,
+            final Component drawer) {
+        if (template == null) {
+            throw new IllegalArgumentException("template may not be null.");
+        }
+        final Drawer newDrawer = new Drawer(drawer);
+        newDrawer.template = template;
+        return newDrawer;
+    }
+
+    @Override
+    public void attach() {
+        super.attach();
+        if (placeholder != null) {
+            placeholder.setParent(this);
+        }
+
+        applier = PendingUpdateApplier.getApplier(getApplication());
+
+        // anything posted while detached was not scheduled.
+        waitingWorkScheduled = 0;
+        if (hasPendingUpdates() || hasThrottledToggle) {
+            scheduleWaitingWork();
+        }
+    }
+
+    @Override
+    public void detach() {
+        if (applier != null) {
+            applier.detached(this);
+            applier = null;
+        }
+        throttle = null;
+        if (placeholder != null) {
+            placeholder.setParent(null);
+        }
+
+        super.detach();
+    }
+
     @Override
     public void paintContent(final PaintTarget target) throws PaintException {
+        final String caption = template.getDefaultCaption();
         final String captionString = (caption != null) ? caption : "";
         target.addAttribute(VDrawer.ATTRIBUTE_DEFAULTCAPTION__STRING,
                 captionString);
 
         target.addAttribute(VDrawer.ATTRIBUTE_ANIMATION_DURATION__INT,
-                animationDurationMillis);
+                template.getAnimationDurationMillis());
 
-        target.addAttribute(VDrawer.ATTRIBUTE_DRAWER_HEIGHT__INT, drawerHeight);
+        target.addAttribute(VDrawer.ATTRIBUTE_DRAWER_HEIGHT__INT,
+                template.getDrawerHeight());
+        target.addAttribute(VDrawer.ATTRIBUTE_MAX_DRAWER_HEIGHT__INT,
+                template.getMaxDrawerHeight());
 
         target.addAttribute(VDrawer.ATTRIBUTE_CALCULATE_HEADER_WIDTH__BOOLEAN,
                 calculateHeaderWidth);
 
+        if (group != null) {
+            target.addAttribute(VDrawer.ATTRIBUTE_GROUP__STRING, group.getId());
+            target.addAttribute(VDrawer.ATTRIBUTE_GROUP_MAX_OPEN__INT,
+                    group.getMaxOpenDrawers());
+        }
+
+        if (template.isContentFrozenDuringAnimation()) {
+            target.addAttribute(VDrawer.ATTRIBUTE_FREEZE_CONTENT__BOOLEAN, true);
+        }
+
+        if (template.isToggleLatencyTracked()) {
+            target.addAttribute(VDrawer.ATTRIBUTE_TRACK_LATENCY__BOOLEAN, true);
+        }
+
+        if (applier != null && applier.painted(this)) {
+            target.addAttribute(VDrawer.ATTRIBUTE_SYNC__BOOLEAN, true);
+        }
+
+        /*
+         * A held toggle isn't applied here, since that could close drawers of
+         * the group that have been painted already. The client keeps the
+         * state it asked for until the toggle is applied.
+         */
+        final boolean paintedOpen = hasThrottledToggle ? throttledDrawerOpen
+                : drawerOpen;
         target.addVariable(this, VDrawer.VARIABLE_DRAWERVISIBLE__BOOLEAN,
-                drawerOpen);
+                paintedOpen);
         target.addAttribute(VDrawer.ATTRIBUTE_ANIMATE__BOOLEAN,
                 animationRequested);
         animationRequested = false;
 
-        final Paintable paintableDrawerWidget = (drawer != null) ? drawer
-                : new Label();
+        /*
+         * Unchanged content is sent as "cached" by the PaintTarget, but only
+         * if it's the same Paintable as in the last paint. That's why the
+         * placeholder is reused instead of creating a new one each time.
+         * Lazy content is painted as soon as the client shows the drawer open,
+         * even if that's only a held toggle.
+         */
+        final Paintable paintableDrawerWidget;
+        if (drawer != null
+                && (paintedOpen || !template.isLazyContent()
+                        || drawerContentPainted)) {
+            paintableDrawerWidget = drawer;
+            drawerContentPainted = true;
+        } else {
+            if (placeholder == null) {
+                placeholder = new Label();
+                placeholder.setParent(this);
+            }
+
+            // the placeholder stands in for the content's caption, too.
+            final String placeholderCaption = (drawer != null) ? drawer
+                    .getCaption() : null;
+            if (placeholderCaption == null ? placeholder.getCaption() != null
+                    : !placeholderCaption.equals(placeholder.getCaption())) {
+                placeholder.setCaption(placeholderCaption);
+            }
+            paintableDrawerWidget = placeholder;
+
+            if (drawer != null) {
+                // so that the client doesn't open to the placeholder's height.
+                target.addAttribute(
+                        VDrawer.ATTRIBUTE_CONTENT_PENDING__BOOLEAN, true);
+            }
+        }
         paintableDrawerWidget.paint(target);
         target.addAttribute(VDrawer.ATTRIBUTE_DRAWER_HAS_CONTENT__BOOLEAN,
                 drawerHasContent);
@@ -173,13 +374,48 @@ public class Drawer extends AbstractComponentContainer {
      * @see #toggleDrawer(boolean)
      */
     public void setDrawerOpen(final boolean drawerIsOpen, final boolean animate) {
+        setDrawerOpen(drawerIsOpen, animate, false);
+    }
+
+    private void setDrawerOpen(final boolean drawerIsOpen,
+            final boolean animate, final boolean fromClient) {
         if (drawerOpen != drawerIsOpen) {
             drawerOpen = drawerIsOpen;
             animationRequested = animate;
             requestRepaint();
+
+            final DrawerInteractionLog log = DrawerInteractionLog.getNodeLog();
+            if (log != null) {
+                log.record(this, drawerIsOpen, fromClient);
+            }
+
+            if (group != null) {
+                if (drawerIsOpen) {
+                    group.drawerOpened(this, animate);
+                } else {
+                    group.drawerClosed(this);
+                }
+            }
         }
     }
 
+    /**
+     * Get the group this drawer belongs to.
+     * 
+     * @return The {@link DrawerGroup}, or <code>null</code> if the drawer
+     *         isn't in a group.
+     * @see DrawerGroup#addDrawer(Drawer)
+     */
+    public DrawerGroup getGroup() {
+        return group;
+    }
+
+    /** Called by {@link DrawerGroup} only. */
+    void setGroup(final DrawerGroup group) {
+        this.group = group;
+        requestRepaint();
+    }
+
     /**
      * Toggle the drawer from open to close, or vice versa. This will not be
      * animated.
@@ -204,26 +440,319 @@ public class Drawer extends AbstractComponentContainer {
         setDrawerOpen(!isDrawerOpen(), animate);
     }
 
+    /**
+     * <p>
+     * Set the default caption from a thread that doesn't hold the application
+     * lock.
+     * </p>
+     * 
+     * <p>
+     * The change is queued without blocking, and applied during the next
+     * request to the application (e.g. by a poll). If several changes are
+     * posted in between, only the last one is applied.
+     * </p>
+     * 
+     * @param caption
+     *            The caption that will be shown by default.
+     * @see #setDefaultCaption(String)
+     */
+    public void postDefaultCaption(final String caption) {
+        getPendingUpdates().offer(new PendingUpdate(PENDING_DEFAULT_CAPTION,
+                caption, false));
+        scheduleWaitingWork();
+    }
+
+    /**
+     * <p>
+     * Open or close the drawer from a thread that doesn't hold the
+     * application lock.
+     * </p>
+     * 
+     * <p>
+     * The change is queued without blocking, and applied during the next
+     * request to the application (e.g. by a poll). If several changes are
+     * posted in between, only the last one is applied.
+     * </p>
+     * 
+     * @param drawerIsOpen
+     *            <code>true</code> iff the drawer should be opened.
+     * @param animate
+     *            <code>true</code> if the transition should be animated.
+     * @see #setDrawerOpen(boolean, boolean)
+     */
+    public void postDrawerOpen(final boolean drawerIsOpen,
+            final boolean animate) {
+        getPendingUpdates().offer(new PendingUpdate(PENDING_DRAWER_OPEN, Boolean
+                .valueOf(drawerIsOpen), animate));
+        scheduleWaitingWork();
+    }
+
+    /**
+     * <p>
+     * Replace the drawer's content from a thread that doesn't hold the
+     * application lock.
+     * </p>
+     * 
+     * <p>
+     * The change is queued without blocking, and applied during the next
+     * request to the application (e.g. by a poll). If several changes are
+     * posted in between, only the last one is applied.
+     * </p>
+     * 
+     * @param component
+     *            The component to be displayed in the drawer. If
+     *            <code>null</code>, the current component will be removed.
+     * @see #setDrawerComponent(Component)
+     */
+    public void postDrawerComponent(final Component component) {
+        getPendingUpdates().offer(new PendingUpdate(PENDING_DRAWER_COMPONENT,
+                component, false));
+        scheduleWaitingWork();
+    }
+
+    /**
+     * @return The queue for updates posted from other threads, created the
+     *         first time it's needed. May be called from any thread.
+     */
+    private Queue<PendingUpdate> getPendingUpdates() {
+        Queue<PendingUpdate> updates = pendingUpdates;
+        if (updates == null) {
+            PENDING_UPDATES.compareAndSet(this, null,
+                    new ConcurrentLinkedQueue<PendingUpdate>());
+            updates = pendingUpdates;
+        }
+        return updates;
+    }
+
+    private boolean hasPendingUpdates() {
+        final Queue<PendingUpdate> updates = pendingUpdates;
+        return updates != null && !updates.isEmpty();
+    }
+
+    /**
+     * Have {@link #applyWaitingWork()} called during the next request. May be
+     * called from any thread. If the drawer isn't attached, this is done once
+     * it is.
+     */
+    private void scheduleWaitingWork() {
+        final PendingUpdateApplier applier = this.applier;
+        if (applier != null
+                && WAITING_WORK_SCHEDULED.compareAndSet(this, 0, 1)) {
+            applier.schedule(this);
+        }
+    }
+
+    /**
+     * Apply the updates posted from other threads, and a toggle held back by
+     * the {@link ToggleThrottle} if it's allowed by now. Called by
+     * {@link PendingUpdateApplier} while holding the application lock.
+     */
+    void applyWaitingWork() {
+        waitingWorkScheduled = 0;
+        applyPendingUpdates();
+        applyThrottledToggle();
+
+        if (hasThrottledToggle) {
+            // try again on the next request.
+            scheduleWaitingWork();
+        }
+    }
+
+    /**
+     * Apply everything posted to {@link #pendingUpdates}, collapsing multiple
+     * updates of the same property into the last one. Must be called while
+     * holding the application lock.
+     */
+    private void applyPendingUpdates() {
+        if (!hasPendingUpdates()) {
+            return;
+        }
+
+        final PendingUpdate[] latest = new PendingUpdate[PENDING_PROPERTY_COUNT];
+        PendingUpdate update;
+        while ((update = pendingUpdates.poll()) != null) {
+            latest[update.property] = update;
+        }
+
+        // the content goes first, since it might affect the caption.
+        update = latest[PENDING_DRAWER_COMPONENT];
+        if (update != null) {
+            setDrawerComponent((Component) update.value);
+        }
+
+        update = latest[PENDING_DEFAULT_CAPTION];
+        if (update != null) {
+            setDefaultCaption((String) update.value);
+        }
+
+        update = latest[PENDING_DRAWER_OPEN];
+        if (update != null) {
+            setDrawerOpen(((Boolean) update.value).booleanValue(),
+                    update.animate);
+        }
+    }
+
     @Override
     public void changeVariables(final Object source,
             @SuppressWarnings("rawtypes") final Map variables) {
+        if (applier != null) {
+            applier.checkCarrier();
+            if (variables.containsKey(VDrawer.VARIABLE_SYNC__BOOLEAN)) {
+                applier.applyWaitingWork();
+            }
+        }
+
         if (variables.containsKey(VDrawer.VARIABLE_DRAWERVISIBLE__BOOLEAN)) {
-            // the request came from the client, so this is always animated.
-            setDrawerOpen(
-                    (Boolean) variables
-                            .get(VDrawer.VARIABLE_DRAWERVISIBLE__BOOLEAN),
-                    true);
-            requestRepaint();
+            final boolean drawerIsOpen = ((Boolean) variables
+                    .get(VDrawer.VARIABLE_DRAWERVISIBLE__BOOLEAN))
+                    .booleanValue();
+            final ToggleThrottle throttle = getThrottle();
+
+            if (throttle == null || isFreeToggle(drawerIsOpen)
+                    || throttle.tryAcquire()) {
+                hasThrottledToggle = false;
+
+                // the request came from the client, so this is always
+                // animated.
+                setDrawerOpen(drawerIsOpen, true, true);
+                requestRepaint();
+            } else {
+                // only the last throttled state is applied later.
+                throttle.throttled();
+                hasThrottledToggle = true;
+                throttledDrawerOpen = drawerIsOpen;
+                scheduleWaitingWork();
+            }
+        }
+
+        if (variables.containsKey(VDrawer.VARIABLE_TOGGLE_LATENCY__INT)) {
+            final long latency = ((Integer) variables
+                    .get(VDrawer.VARIABLE_TOGGLE_LATENCY__INT)).longValue();
+            ToggleLatencyHistogram.getNodeHistogram().recordValue(latency);
+            if (getApplication() != null) {
+                ToggleLatencyHistogram.getApplicationHistogram(
+                        getApplication()).recordValue(latency);
+            }
+        }
+    }
+
+    /**
+     * @return The application's {@link ToggleThrottle}, or <code>null</code>
+     *         if the application's toggles aren't limited.
+     */
+    private ToggleThrottle getThrottle() {
+        if (throttle == null && getApplication() != null) {
+            throttle = ToggleThrottle.getLimitingThrottle(getApplication());
+        }
+        return throttle;
+    }
+
+    /**
+     * Check whether a toggle from the client is applied without taking it
+     * into account in the {@link ToggleThrottle}. That's the case for a toggle
+     * that changes nothing on the server, and for closing a drawer of a
+     * {@link DrawerGroup}, since the client closes those by itself when
+     * another drawer of the group is opened.
+     * 
+     * @param drawerIsOpen
+     *            The state the client asks for.
+     */
+    private boolean isFreeToggle(final boolean drawerIsOpen) {
+        return drawerIsOpen == drawerOpen || (!drawerIsOpen && group != null);
+    }
+
+    /**
+     * Apply the last toggle from the client that was held back by the
+     * application's {@link ToggleThrottle}, if the throttle allows it by now.
+     */
+    private void applyThrottledToggle() {
+        if (hasThrottledToggle) {
+            final ToggleThrottle throttle = getThrottle();
+            if (throttle == null || isFreeToggle(throttledDrawerOpen)
+                    || throttle.tryAcquire()) {
+                hasThrottledToggle = false;
+                setDrawerOpen(throttledDrawerOpen, true, true);
+                requestRepaint();
+            }
         }
     }
 
+    /**
+     * Check whether the latencies of toggling this drawer from the client are
+     * measured.
+     * 
+     * @return <code>true</code> iff the latencies are measured.
+     * @see #setToggleLatencyTracked(boolean)
+     */
+    public boolean isToggleLatencyTracked() {
+        return template.isToggleLatencyTracked();
+    }
+
+    /**
+     * <p>
+     * Set whether the latencies of toggling this drawer from the client are
+     * measured.
+     * </p>
+     * 
+     * <p>
+     * When tracked, the client measures the time from sending a toggle to the
+     * server until the server's response to it has been applied, and reports
+     * it along with its next request. The delay with which the client
+     * coalesces quick clicks isn't included. The latencies are recorded in
+     * {@link ToggleLatencyHistogram#getNodeHistogram()} and
+     * {@link ToggleLatencyHistogram#getApplicationHistogram(com.vaadin.Application)}
+     * .
+     * </p>
+     * 
+     * @param toggleLatencyTracked
+     *            <code>true</code> iff the latencies should be measured.
+     */
+    public void setToggleLatencyTracked(final boolean toggleLatencyTracked) {
+        template = template.withToggleLatencyTracked(toggleLatencyTracked);
+        requestRepaint();
+    }
+
+    /**
+     * Check whether the drawer's content keeps its size while the drawer is
+     * animated.
+     * 
+     * @return <code>true</code> iff the content is frozen during animations.
+     * @see #setContentFrozenDuringAnimation(boolean)
+     */
+    public boolean isContentFrozenDuringAnimation() {
+        return template.isContentFrozenDuringAnimation();
+    }
+
+    /**
+     * <p>
+     * Set whether the drawer's content keeps its size while the drawer is
+     * animated.
+     * </p>
+     * 
+     * <p>
+     * When frozen, the content is given its final size when an animation
+     * starts, and only the drawer around it is resized on each frame. This
+     * makes animating heavy content, such as nested layouts or tables,
+     * considerably cheaper. The content is laid out normally again once the
+     * animation is over.
+     * </p>
+     * 
+     * @param frozen
+     *            <code>true</code> iff the content should be frozen during
+     *            animations.
+     */
+    public void setContentFrozenDuringAnimation(final boolean frozen) {
+        template = template.withContentFrozenDuringAnimation(frozen);
+        requestRepaint();
+    }
+
     /**
      * Get the duration to render the opening or closing of the drawer.
      * 
      * @return The drawer's render time in milliseconds
      */
     public int getAnimationDurationMillis() {
-        return animationDurationMillis;
+        return template.getAnimationDurationMillis();
     }
 
     /**
@@ -233,7 +762,8 @@ public class Drawer extends AbstractComponentContainer {
      *            The animation duration in milliseconds <i>(1000ms == 1s)</i>
      */
     public void setAnimationDurationMillis(final int animationDurationMillis) {
-        this.animationDurationMillis = animationDurationMillis;
+        template = template
+                .withAnimationDurationMillis(animationDurationMillis);
 
         // no need to request repaint for this
     }
@@ -322,13 +852,84 @@ public class Drawer extends AbstractComponentContainer {
      *            inside.
      */
     public void setDrawerHeight(final int drawerHeightPixels) {
-        if (drawerHeightPixels >= 0 || drawerHeightPixels == DRAWER_HEIGHT_AUTO) {
-            drawerHeight = drawerHeightPixels;
-            requestRepaint();
-        } else {
-            throw new IllegalArgumentException(
-                    "Argument must be 0 or more, or Drawer.DRAWER_HEIGHT_AUTO.");
-        }
+        template = template.withDrawerHeight(drawerHeightPixels);
+        requestRepaint();
+    }
+
+    /**
+     * Get the height of the drawer-portion of the widget.
+     * 
+     * @return The height of the drawer in pixels, or
+     *         {@link Drawer#DRAWER_HEIGHT_AUTO} if it's calculated
+     *         automatically.
+     * @see #setDrawerHeight(int)
+     */
+    public int getDrawerHeight() {
+        return template.getDrawerHeight();
+    }
+
+    /**
+     * Check whether the drawer's content is sent to the browser only once the
+     * drawer is opened.
+     * 
+     * @return <code>true</code> iff the content is sent lazily.
+     * @see #setLazyContent(boolean)
+     */
+    public boolean isLazyContent() {
+        return template.isLazyContent();
+    }
+
+    /**
+     * <p>
+     * Set whether the drawer's content is sent to the browser only once the
+     * drawer is opened.
+     * </p>
+     * 
+     * <p>
+     * This keeps large content, such as a big table, from slowing down each
+     * response until it's actually needed. Once sent, the content stays on
+     * the client until it's replaced.
+     * </p>
+     * 
+     * @param lazyContent
+     *            <code>true</code> iff the content should be sent lazily.
+     */
+    public void setLazyContent(final boolean lazyContent) {
+        template = template.withLazyContent(lazyContent);
+        requestRepaint();
+    }
+
+    /**
+     * Get the maximum height of an automatically sized drawer.
+     * 
+     * @return The maximum height in pixels, or
+     *         {@link Drawer#DRAWER_MAX_HEIGHT_NONE} if there is no limit.
+     * @see #setMaxDrawerHeight(int)
+     */
+    public int getMaxDrawerHeight() {
+        return template.getMaxDrawerHeight();
+    }
+
+    /**
+     * <p>
+     * Set the maximum height of the drawer-portion of the widget.
+     * </p>
+     * 
+     * <p>
+     * This only affects drawers with the height
+     * {@link Drawer#DRAWER_HEIGHT_AUTO}. If the {@link Component} inside needs
+     * more space, the drawer is opened only to this height and the Component
+     * can be scrolled.
+     * </p>
+     * 
+     * @param maxDrawerHeightPixels
+     *            The maximum height of the drawer in pixels, or
+     *            {@link Drawer#DRAWER_MAX_HEIGHT_NONE} for no limit.
+     * @see #setDrawerHeight(int)
+     */
+    public void setMaxDrawerHeight(final int maxDrawerHeightPixels) {
+        template = template.withMaxDrawerHeight(maxDrawerHeightPixels);
+        requestRepaint();
     }
 
     /**
@@ -343,8 +944,17 @@ public class Drawer extends AbstractComponentContainer {
             super.removeComponent(drawer);
         }
 
+        if (drawer != null && placeholder != null) {
+            /*
+             * The client has discarded the placeholder widget while the
+             * content was shown, so make sure it's not sent as "cached".
+             */
+            placeholder.requestRepaint();
+        }
+
         drawer = component;
         drawerHasContent = (component != null);
+        drawerContentPainted = false;
 
         if (component != null) {
             super.addComponent(drawer);
@@ -375,13 +985,23 @@ public class Drawer extends AbstractComponentContainer {
         return drawer;
     }
 
+    /**
+     * Get the drawer's current settings.
+     * 
+     * @return The settings as a {@link DrawerTemplate}, that can be used for
+     *         creating more drawers like this one.
+     */
+    public DrawerTemplate getTemplate() {
+        return template;
+    }
+
     /**
      * Get the default caption of the drawer.
      * 
      * @return The string that has been set as the default caption
      */
     public String getDefaultCaption() {
-        return caption;
+        return template.getDefaultCaption();
     }
 
     /**
@@ -417,7 +1037,7 @@ public class Drawer extends AbstractComponentContainer {
      *            The caption that will be shown by default.
      */
     public void setDefaultCaption(final String caption) {
-        this.caption = caption;
+        template = template.withDefaultCaption(caption);
         requestRepaint();
     }
 
@@ -0,0 +1,158 @@
+/*
+ *    Copyright 2009 IT Mill Oy
+ *
+ *  Licensed under the Apache License, Version 2.0 (the "License");
+ *  you may not use this file except in compliance with the License.
+ *  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ *  limitations under the License.
+ */
+
+package org.vaadin.henrik.drawer;
+
+import java.io.Serializable;
+import java.util.ArrayList;
+import java.util.LinkedList;
+import java.util.List;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * <p>
+ * A set of {@link Drawer Drawers} of which only a limited number may be open
+ * at a time.
+ * </p>
+ * 
+ * <p>
+ * When a Drawer in the group is opened and too many Drawers would be open,
+ * the one that was opened the longest time ago is closed. When the user opens
+ * a Drawer, this is done on the client right away.
+ * </p>
+ * 
+ * @author Henrik Paul / IT Mill Ltd
+ */
+@SuppressWarnings("serial")
+public class DrawerGroup implements Serializable {
+
+    private static final AtomicInteger nextId = new AtomicInteger();
+
+    private final String id = "g" + nextId.incrementAndGet();
+
+    private int maxOpenDrawers;
+
+    private final List<Drawer> drawers = new ArrayList<Drawer>();
+
+    /** The open drawers, the most recently opened last. */
+    private final LinkedList<Drawer> openDrawers = new LinkedList<Drawer>();
+
+    /**
+     * Create a new {@link DrawerGroup} that allows only one open
+     * {@link Drawer} at a time.
+     */
+    public DrawerGroup() {
+        this(1);
+    }
+
+    /**
+     * Create a new {@link DrawerGroup}.
+     * 
+     * @param maxOpenDrawers
+     *            How many {@link Drawer Drawers} may be open at a time.
+     */
+    public DrawerGroup(final int maxOpenDrawers) {
+        setMaxOpenDrawers(maxOpenDrawers);
+    }
+
+    /**
+     * Add a {@link Drawer} to this group. A Drawer can be in one group at a
+     * time, so it is removed from its previous group.
+     * 
+     * @param drawer
+     *            The Drawer to add
+     */
+    public void addDrawer(final Drawer drawer) {
+        final DrawerGroup oldGroup = drawer.getGroup();
+        if (oldGroup == this) {
+            return;
+        } else if (oldGroup != null) {
+            oldGroup.removeDrawer(drawer);
+        }
+
+        drawers.add(drawer);
+        drawer.setGroup(this);
+        if (drawer.isDrawerOpen()) {
+            drawerOpened(drawer, false);
+        }
+    }
+
+    /**
+     * Remove a {@link Drawer} from this group.
+     * 
+     * @param drawer
+     *            The Drawer to remove. If it is not in this group, this method
+     *            does nothing.
+     */
+    public void removeDrawer(final Drawer drawer) {
+        if (drawer.getGroup() == this) {
+            drawers.remove(drawer);
+            openDrawers.remove(drawer);
+            drawer.setGroup(null);
+        }
+    }
+
+    /**
+     * Get how many {@link Drawer Drawers} in this group may be open at a time.
+     * 
+     * @return The maximum number of open Drawers.
+     */
+    public int getMaxOpenDrawers() {
+        return maxOpenDrawers;
+    }
+
+    /**
+     * Set how many {@link Drawer Drawers} in this group may be open at a time.
+     * If more are open already, the ones opened the longest time ago are
+     * closed.
+     * 
+     * @param maxOpenDrawers
+     *            The maximum number of open Drawers. Must be 1 or more.
+     */
+    public void setMaxOpenDrawers(final int maxOpenDrawers) {
+        if (maxOpenDrawers < 1) {
+            throw new IllegalArgumentException("Argument must be 1 or more.");
+        }
+
+        this.maxOpenDrawers = maxOpenDrawers;
+        closeExcessDrawers(false);
+
+        for (final Drawer drawer : drawers) {
+            drawer.requestRepaint();
+        }
+    }
+
+    /** The identifier with which the client recognizes this group. */
+    String getId() {
+        return id;
+    }
+
+    void drawerOpened(final Drawer drawer, final boolean animate) {
+        openDrawers.remove(drawer);
+        openDrawers.addLast(drawer);
+        closeExcessDrawers(animate);
+    }
+
+    void drawerClosed(final Drawer drawer) {
+        openDrawers.remove(drawer);
+    }
+
+    private void closeExcessDrawers(final boolean animate) {
+        while (openDrawers.size() > maxOpenDrawers) {
+            openDrawers.getFirst().setDrawerOpen(false, animate);
+        }
+    }
+}
@@ -0,0 +1,484 @@
+/*
+ *    Copyright 2009 IT Mill Oy
+ *
+ *  Licensed under the Apache License, Version 2.0 (the "License");
+ *  you may not use this file except in compliance with the License.
+ *  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ *  limitations under the License.
+ */
+
+package org.vaadin.henrik.drawer;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.io.UnsupportedEncodingException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+import java.util.concurrent.locks.LockSupport;
+
+import com.vaadin.Application;
+import com.vaadin.service.ApplicationContext;
+import com.vaadin.terminal.gwt.server.WebApplicationContext;
+
+/**
+ * <p>
+ * A log of the times {@link Drawer Drawers} are opened and closed, for
+ * learning which drawers are worth sending eagerly.
+ * </p>
+ * 
+ * <p>
+ * Logging is off until a log is installed with
+ * {@link #setNodeLog(DrawerInteractionLog)}. Recording an event doesn't block,
+ * and in a servlet it doesn't allocate: the event is put into a fixed-size
+ * buffer, from which a background thread appends it, in batches, into a
+ * file. If the buffer is
+ * full, the new event is dropped and counted in {@link #getDroppedCount()}.
+ * Events are never waited for, nor are older events overwritten.
+ * </p>
+ * 
+ * <p>
+ * Each event has the id of the HTTP session, and the id of the drawer, see
+ * {@link #getDrawerId(Drawer)}. Give the drawers stable ids with
+ * {@link Drawer#setDebugId(String)}, so that their events can be told apart
+ * across sessions and restarts. Since the session ids are in the file, it
+ * needs to be protected like the server's other logs.
+ * </p>
+ * 
+ * <p>
+ * The file starts with an 8-byte header, followed by records of the time in
+ * milliseconds (long, big-endian), the flags (byte), the session id and the
+ * drawer id. Each id is written as its length (unsigned byte) followed by as
+ * many bytes of UTF-8, cut to {@link #MAX_ID_BYTES}. Use
+ * {@link DrawerInteractionLogReader} to read the file.
+ * </p>
+ * 
+ * <p>
+ * The writer is a daemon thread, that runs until {@link #close()} is called.
+ * In a web application, close the log when the application is undeployed, or
+ * the thread and the open file outlive it. {@link DrawerInteractionLogListener}
+ * does this, when registered in <tt>web.xml</tt>.
+ * </p>
+ * 
+ * @author Henrik Paul / IT Mill Ltd
+ */
+public class DrawerInteractionLog {
+
+    /** The first bytes of a log file: "DRWLOG02" in ASCII. */
+    static final long MAGIC = 0x4452574C4F473032L;
+
+    /**
+     * The first bytes of a log file of the earlier format, with 17-byte
+     * records of hashes instead of ids: "DRWLOG01" in ASCII.
+     */
+    static final long MAGIC_V1 = 0x4452574C4F473031L;
+    static final int HEADER_SIZE = 8;
+    static final int RECORD_SIZE_V1 = 17;
+
+    /** How many bytes of an id are written at most. */
+    static final int MAX_ID_BYTES = 255;
+
+    static final int MAX_RECORD_SIZE = 8 + 1 + 2 * (1 + MAX_ID_BYTES);
+
+    /** The flag set when the drawer was opened, instead of closed. */
+    public static final int FLAG_OPEN = 1;
+
+    /** The flag set when the user toggled the drawer on the client. */
+    public static final int FLAG_FROM_CLIENT = 2;
+
+    private static final int BATCH_RECORDS = 512;
+    private static final int BATCH_BYTES = 64 * 1024;
+    private static final long IDLE_WAIT_NANOS = 100 * 1000 * 1000L;
+
+    /** The tail once the writer has stopped: no more events can be recorded. */
+    private static final long SEALED_TAIL = -1;
+
+    private static volatile DrawerInteractionLog nodeLog = null;
+
+    private final int capacity;
+    private final int mask;
+
+    /**
+     * <p>
+     * The sequence number of each slot in the buffer. A slot is free for the
+     * event number <code>n</code> when its sequence is <code>n</code>, and the
+     * event can be read when the sequence is <code>n + 1</code>.
+     * </p>
+     * 
+     * <p>
+     * The event data is written into the plain arrays before the sequence is
+     * set, and read after the sequence has been seen.
+     * </p>
+     */
+    private final AtomicLongArray sequences;
+    private final long[] timestamps;
+    private final String[] sessionIds;
+    private final String[] drawerIds;
+    private final byte[] flags;
+
+    /** The number of the next event to be recorded. */
+    private final AtomicLong tail = new AtomicLong();
+
+    /** The number of the next event to be written. Writer thread only. */
+    private long head = 0;
+
+    private final AtomicLong droppedCount = new AtomicLong();
+    private final AtomicLong writtenCount = new AtomicLong();
+
+    private final FileChannel channel;
+    private final ByteBuffer batch = ByteBuffer.allocateDirect(BATCH_BYTES);
+    private final Thread writer;
+
+    private volatile boolean closed = false;
+    private volatile IOException writeError = null;
+
+    /**
+     * Create a new {@link DrawerInteractionLog} and start its writer thread.
+     * 
+     * @param file
+     *            The file to append the events into. It's created if it
+     *            doesn't exist.
+     * @param bufferCapacity
+     *            How many events may wait to be written. Rounded up to a
+     *            power of two.
+     * @throws IOException
+     *             if the file couldn't be opened, or it's not a log file of
+     *             this format.
+     */
+    public DrawerInteractionLog(final File file, final int bufferCapacity)
+            throws IOException {
+        if (bufferCapacity < 1 || bufferCapacity > 1 << 30) {
+            throw new IllegalArgumentException(
+                    "The capacity must be between 1 and 2^30.");
+        }
+
+        final int highestBit = Integer.highestOneBit(bufferCapacity);
+        capacity = (highestBit == bufferCapacity) ? highestBit
+                : highestBit << 1;
+        mask = capacity - 1;
+
+        sequences = new AtomicLongArray(capacity);
+        for (int i = 0; i < capacity; i++) {
+            sequences.set(i, i);
+        }
+        timestamps = new long[capacity];
+        sessionIds = new String[capacity];
+        drawerIds = new String[capacity];
+        flags = new byte[capacity];
+
+        channel = new RandomAccessFile(file, "rw").getChannel();
+        try {
+            final ByteBuffer header = ByteBuffer.allocate(HEADER_SIZE);
+            if (channel.size() == 0) {
+                header.putLong(MAGIC).flip();
+                while (header.hasRemaining()) {
+                    channel.write(header);
+                }
+            } else {
+                // appending to a file of another format would garble it.
+                while (header.hasRemaining() && channel.read(header) >= 0) {
+                    // keep reading
+                }
+                header.flip();
+                if (header.remaining() < HEADER_SIZE
+                        || header.getLong() != MAGIC) {
+                    throw new IOException(file
+                            + " is not a drawer interaction log of this version");
+                }
+                channel.position(channel.size());
+            }
+        } catch (final IOException e) {
+            channel.close();
+            throw e;
+        }
+
+        writer = new Thread(new Runnable() {
+            public void run() {
+                writeUntilClosed();
+            }
+        }, "DrawerInteractionLog writer for " + file.getName());
+        writer.setDaemon(true);
+        writer.start();
+    }
+
+    /**
+     * Get the log that the {@link Drawer Drawers} in this JVM record their
+     * events into.
+     * 
+     * @return The log, or <code>null</code> if events aren't logged.
+     */
+    public static DrawerInteractionLog getNodeLog() {
+        return nodeLog;
+    }
+
+    /**
+     * Set the log that the {@link Drawer Drawers} in this JVM record their
+     * events into. The previous log is not closed.
+     * 
+     * @param log
+     *            The log, or <code>null</code> to stop logging.
+     */
+    public static void setNodeLog(final DrawerInteractionLog log) {
+        nodeLog = log;
+    }
+
+    /**
+     * Get the id with which a drawer's events are identified in the log: its
+     * debug id, if the application has given it one, or else its default
+     * caption.
+     * 
+     * @param drawer
+     *            The drawer
+     * @return The drawer's id. Never <code>null</code>.
+     * @see Drawer#setDebugId(String)
+     */
+    public static String getDrawerId(final Drawer drawer) {
+        final String debugId = drawer.getDebugId();
+        if (debugId != null) {
+            return debugId;
+        }
+        final String defaultCaption = drawer.getDefaultCaption();
+        return (defaultCaption != null) ? defaultCaption : "";
+    }
+
+    /**
+     * Get the id with which the events of an application's drawers are
+     * identified in the log: the id of the HTTP session.
+     * 
+     * @param application
+     *            The application, or <code>null</code>
+     * @return The session id, or, outside of a servlet, an id of the
+     *         application instance. Never <code>null</code>.
+     */
+    public static String getSessionId(final Application application) {
+        if (application == null) {
+            return "";
+        }
+
+        final ApplicationContext context = application.getContext();
+        if (context instanceof WebApplicationContext) {
+            return ((WebApplicationContext) context).getHttpSession().getId();
+        }
+        return "application-"
+                + Integer.toHexString(System.identityHashCode(application));
+    }
+
+    /**
+     * Get how many events have been dropped, because the buffer was full, the
+     * log was closed, or the events couldn't be written.
+     * 
+     * @return The count of dropped events.
+     */
+    public long getDroppedCount() {
+        return droppedCount.get();
+    }
+
+    /**
+     * Get how many events have been written into the file.
+     * 
+     * @return The count of written events.
+     */
+    public long getWrittenCount() {
+        return writtenCount.get();
+    }
+
+    /**
+     * Get the error with which writing into the file last failed.
+     * 
+     * @return The error, or <code>null</code> if no write has failed.
+     */
+    public IOException getWriteError() {
+        return writeError;
+    }
+
+    /**
+     * Write the events in the buffer, stop the writer thread and close the
+     * file. Events recorded after this are dropped.
+     * 
+     * @throws InterruptedException
+     *             if the calling thread was interrupted while waiting for the
+     *             writer thread.
+     */
+    public void close() throws InterruptedException {
+        if (nodeLog == this) {
+            nodeLog = null;
+        }
+        closed = true;
+        LockSupport.unpark(writer);
+        writer.join();
+    }
+
+    /**
+     * Record that a drawer was opened or closed.
+     * 
+     * @param drawer
+     *            The drawer
+     * @param open
+     *            <code>true</code> if the drawer was opened
+     * @param fromClient
+     *            <code>true</code> if the user toggled the drawer
+     */
+    void record(final Drawer drawer, final boolean open,
+            final boolean fromClient) {
+        final String sessionId = getSessionId(drawer.getApplication());
+        final String drawerId = getDrawerId(drawer);
+        final int flag = (open ? FLAG_OPEN : 0)
+                | (fromClient ? FLAG_FROM_CLIENT : 0);
+        final long timestamp = System.currentTimeMillis();
+
+        if (closed || !offer(timestamp, sessionId, drawerId, (byte) flag)) {
+            droppedCount.incrementAndGet();
+        }
+    }
+
+    private boolean offer(final long timestamp, final String sessionId,
+            final String drawerId, final byte flag) {
+        long position = tail.get();
+        while (true) {
+            if (position == SEALED_TAIL) {
+                return false;
+            }
+
+            final int slot = (int) position & mask;
+            final long free = sequences.get(slot) - position;
+            if (free == 0) {
+                if (tail.compareAndSet(position, position + 1)) {
+                    timestamps[slot] = timestamp;
+                    sessionIds[slot] = sessionId;
+                    drawerIds[slot] = drawerId;
+                    flags[slot] = flag;
+                    sequences.lazySet(slot, position + 1);
+                    return true;
+                }
+                position = tail.get();
+            } else if (free < 0) {
+                // the writer hasn't freed the slot yet: the buffer is full.
+                return false;
+            } else {
+                // another thread took the slot.
+                position = tail.get();
+            }
+        }
+    }
+
+    private void writeUntilClosed() {
+        while (!closed) {
+            if (writeBatch() == 0) {
+                LockSupport.parkNanos(IDLE_WAIT_NANOS);
+            }
+        }
+        writeRemaining();
+
+        try {
+            channel.close();
+        } catch (final IOException e) {
+            writeError = e;
+        }
+    }
+
+    /**
+     * Write all the events recorded so far, and seal the buffer so that no
+     * more can be recorded. A recorder may have claimed a slot before seeing
+     * that the log was closed, so the claimed slots are waited for until
+     * they're published.
+     */
+    private void writeRemaining() {
+        while (true) {
+            final long end = tail.get();
+            while (head < end) {
+                if (writeBatch() == 0) {
+                    // claimed, but not published yet.
+                    Thread.yield();
+                }
+            }
+            if (tail.compareAndSet(end, SEALED_TAIL)) {
+                return;
+            }
+        }
+    }
+
+    /**
+     * Move the waiting events, up to one batch, from the buffer into the file.
+     * 
+     * @return The number of events taken from the buffer.
+     */
+    private int writeBatch() {
+        batch.clear();
+        int count = 0;
+        while (count < BATCH_RECORDS && batch.remaining() >= MAX_RECORD_SIZE) {
+            final int slot = (int) head & mask;
+            if (sequences.get(slot) != head + 1) {
+                break;
+            }
+
+            batch.putLong(timestamps[slot]);
+            batch.put(flags[slot]);
+            putId(sessionIds[slot]);
+            putId(drawerIds[slot]);
+
+            // don't keep the strings alive until the slot is reused.
+            sessionIds[slot] = null;
+            drawerIds[slot] = null;
+            sequences.lazySet(slot, head + capacity);
+            head++;
+            count++;
+        }
+
+        if (count > 0) {
+            batch.flip();
+            long start = -1;
+            try {
+                start = channel.size();
+                while (batch.hasRemaining()) {
+                    channel.write(batch);
+                }
+                writtenCount.addAndGet(count);
+            } catch (final IOException e) {
+                writeError = e;
+                droppedCount.addAndGet(count);
+                removePartialBatch(start);
+            }
+        }
+        return count;
+    }
+
+    private void putId(final String id) {
+        byte[] bytes;
+        try {
+            bytes = id.getBytes("UTF-8");
+        } catch (final UnsupportedEncodingException e) {
+            throw new RuntimeException("UTF-8 is always supported", e);
+        }
+
+        int length = Math.min(bytes.length, MAX_ID_BYTES);
+        // don't cut a character in half.
+        while (length < bytes.length && (bytes[length] & 0xC0) == 0x80) {
+            length--;
+        }
+        batch.put((byte) length);
+        batch.put(bytes, 0, length);
+    }
+
+    /**
+     * Cut off what was written of a failed batch, so that the following
+     * records stay aligned.
+     */
+    private void removePartialBatch(final long size) {
+        if (size >= 0) {
+            try {
+                channel.truncate(size);
+            } catch (final IOException e) {
+                // nothing more can be done, the reader has to cope.
+            }
+        }
+    }
+}
@@ -0,0 +1,103 @@
+/*
+ *    Copyright 2009 IT Mill Oy
+ *
+ *  Licensed under the Apache License, Version 2.0 (the "License");
+ *  you may not use this file except in compliance with the License.
+ *  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ *  limitations under the License.
+ */
+
+package org.vaadin.henrik.drawer;
+
+import java.io.File;
+import java.io.IOException;
+
+import javax.servlet.ServletContext;
+import javax.servlet.ServletContextEvent;
+import javax.servlet.ServletContextListener;
+
+/**
+ * <p>
+ * Opens a {@link DrawerInteractionLog} when the web application is deployed,
+ * and closes it when the application is undeployed, so that the log's writer
+ * thread and file don't outlive the application.
+ * </p>
+ * 
+ * <p>
+ * The log file is given with the context parameter
+ * <tt>drawerInteractionLog</tt>, and the buffer capacity, optionally, with
+ * <tt>drawerInteractionLogCapacity</tt>:
+ * </p>
+ * 
+ * <pre>
+ * &lt;context-param&gt;
+ *   &lt;param-name&gt;drawerInteractionLog&lt;/param-name&gt;
+ *   &lt;param-value&gt;/var/log/myapp/drawers.log&lt;/param-value&gt;
+ * &lt;/context-param&gt;
+ * &lt;listener&gt;
+ *   &lt;listener-class&gt;org.vaadin.henrik.drawer.DrawerInteractionLogListener&lt;/listener-class&gt;
+ * &lt;/listener&gt;
+ * </pre>
+ * 
+ * @author Henrik Paul / IT Mill Ltd
+ */
+public class DrawerInteractionLogListener implements ServletContextListener {
+
+    /** The context parameter with the path of the log file. */
+    public static final String FILE_PARAMETER = "drawerInteractionLog";
+
+    /** The context parameter with the capacity of the log's buffer. */
+    public static final String CAPACITY_PARAMETER = "drawerInteractionLogCapacity";
+
+    private static final int DEFAULT_CAPACITY = 8192;
+
+    private DrawerInteractionLog log = null;
+
+    public void contextInitialized(final ServletContextEvent event) {
+        final ServletContext context = event.getServletContext();
+        final String fileName = context.getInitParameter(FILE_PARAMETER);
+        if (fileName == null) {
+            context.log("No " + FILE_PARAMETER
+                    + " parameter, drawer interactions are not logged.");
+            return;
+        }
+
+        int capacity = DEFAULT_CAPACITY;
+        final String capacityValue = context
+                .getInitParameter(CAPACITY_PARAMETER);
+        if (capacityValue != null) {
+            try {
+                capacity = Integer.parseInt(capacityValue.trim());
+            } catch (final NumberFormatException e) {
+                context.log("Invalid " + CAPACITY_PARAMETER + " "
+                        + capacityValue + ", using " + DEFAULT_CAPACITY);
+            }
+        }
+
+        try {
+            log = new DrawerInteractionLog(new File(fileName), capacity);
+            DrawerInteractionLog.setNodeLog(log);
+        } catch (final IOException e) {
+            context.log("Could not open the drawer interaction log "
+                    + fileName, e);
+        }
+    }
+
+    public void contextDestroyed(final ServletContextEvent event) {
+        if (log != null) {
+            try {
+                log.close();
+            } catch (final InterruptedException e) {
+                Thread.currentThread().interrupt();
+            }
+            log = null;
+        }
+    }
+}
@@ -0,0 +1,204 @@
+/*
+ *    Copyright 2009 IT Mill Oy
+ *
+ *  Licensed under the Apache License, Version 2.0 (the "License");
+ *  you may not use this file except in compliance with the License.
+ *  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ *  limitations under the License.
+ */
+
+package org.vaadin.henrik.drawer;
+
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.io.UnsupportedEncodingException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+
+/**
+ * <p>
+ * Reads the files written by {@link DrawerInteractionLog}.
+ * </p>
+ * 
+ * <p>
+ * Files of the earlier format, with hashes instead of ids, can be read too.
+ * Their hashes are given as ids in hexadecimal.
+ * </p>
+ * 
+ * <p>
+ * Run as a program, it prints the events of the given files as tab separated
+ * values.
+ * </p>
+ * 
+ * @author Henrik Paul / IT Mill Ltd
+ */
+public class DrawerInteractionLogReader {
+
+    /** Receives the events read from a log file. */
+    public interface Handler {
+        /**
+         * Handle one event.
+         * 
+         * @param timestampMillis
+         *            When the event happened
+         * @param sessionId
+         *            The session the drawer was in, see
+         *            {@link DrawerInteractionLog#getSessionId(com.vaadin.Application)}
+         * @param drawerId
+         *            The drawer, see
+         *            {@link DrawerInteractionLog#getDrawerId(Drawer)}
+         * @param open
+         *            <code>true</code> if the drawer was opened,
+         *            <code>false</code> if closed
+         * @param fromClient
+         *            <code>true</code> if the user toggled the drawer
+         */
+        void interaction(long timestampMillis, String sessionId,
+                String drawerId, boolean open, boolean fromClient);
+    }
+
+    private static final int BUFFER_BYTES = 64 * 1024;
+
+    private DrawerInteractionLogReader() {
+        // use the static methods
+    }
+
+    /**
+     * Read all the events of a log file. A record cut short at the end of the
+     * file, if the writer was stopped in the middle of a batch, is ignored.
+     * 
+     * @param file
+     *            The log file
+     * @param handler
+     *            The handler to give each event to, in the order they were
+     *            written
+     * @return The number of events read.
+     * @throws IOException
+     *             if the file could not be read, or is not a log file.
+     */
+    public static long read(final File file, final Handler handler)
+            throws IOException {
+        final FileChannel channel = new FileInputStream(file).getChannel();
+        try {
+            final ByteBuffer buffer = ByteBuffer.allocateDirect(BUFFER_BYTES);
+
+            buffer.limit(DrawerInteractionLog.HEADER_SIZE);
+            while (buffer.hasRemaining() && channel.read(buffer) >= 0) {
+                // keep reading
+            }
+            buffer.flip();
+            final long magic = (buffer.remaining() < DrawerInteractionLog.HEADER_SIZE) ? 0
+                    : buffer.getLong();
+            if (magic != DrawerInteractionLog.MAGIC
+                    && magic != DrawerInteractionLog.MAGIC_V1) {
+                throw new IOException(file
+                        + " is not a drawer interaction log");
+            }
+            final boolean v1 = (magic == DrawerInteractionLog.MAGIC_V1);
+
+            long count = 0;
+            buffer.clear();
+            while (channel.read(buffer) >= 0) {
+                buffer.flip();
+                while (v1 ? readRecordV1(buffer, handler)
+                        : readRecord(buffer, handler)) {
+                    count++;
+                }
+                buffer.compact();
+            }
+            return count;
+        } finally {
+            channel.close();
+        }
+    }
+
+    /**
+     * Read one record, if the buffer holds all of it.
+     * 
+     * @return <code>false</code> if the rest of the record is still to be
+     *         read.
+     */
+    private static boolean readRecord(final ByteBuffer buffer,
+            final Handler handler) throws UnsupportedEncodingException {
+        final int start = buffer.position();
+        if (buffer.remaining() < 9) {
+            return false;
+        }
+        final long timestamp = buffer.getLong();
+        final int flags = buffer.get();
+        final String sessionId = getId(buffer);
+        final String drawerId = (sessionId != null) ? getId(buffer) : null;
+        if (drawerId == null) {
+            buffer.position(start);
+            return false;
+        }
+
+        handler.interaction(timestamp, sessionId, drawerId,
+                (flags & DrawerInteractionLog.FLAG_OPEN) != 0,
+                (flags & DrawerInteractionLog.FLAG_FROM_CLIENT) != 0);
+        return true;
+    }
+
+    /** @return The id, or <code>null</code> if it's still to be read. */
+    private static String getId(final ByteBuffer buffer)
+            throws UnsupportedEncodingException {
+        if (!buffer.hasRemaining()) {
+            return null;
+        }
+        final int length = buffer.get() & 0xFF;
+        if (buffer.remaining() < length) {
+            return null;
+        }
+        final byte[] bytes = new byte[length];
+        buffer.get(bytes);
+        return new String(bytes, "UTF-8");
+    }
+
+    private static boolean readRecordV1(final ByteBuffer buffer,
+            final Handler handler) {
+        if (buffer.remaining() < DrawerInteractionLog.RECORD_SIZE_V1) {
+            return false;
+        }
+        final long timestamp = buffer.getLong();
+        final int session = buffer.getInt();
+        final int drawerKey = buffer.getInt();
+        final int flags = buffer.get();
+        handler.interaction(timestamp, Integer.toHexString(session), Integer
+                .toHexString(drawerKey),
+                (flags & DrawerInteractionLog.FLAG_OPEN) != 0,
+                (flags & DrawerInteractionLog.FLAG_FROM_CLIENT) != 0);
+        return true;
+    }
+
+    /**
+     * Print the events of log files as tab separated values.
+     * 
+     * @param args
+     *            The log files to read
+     * @throws IOException
+     *             if a file could not be read.
+     */
+    public static void main(final String[] args) throws IOException {
+        System.out.println("# timestamp\tsession\tdrawer\tstate\tsource");
+        for (final String fileName : args) {
+            read(new File(fileName), new Handler() {
+                public void interaction(final long timestampMillis,
+                        final String sessionId, final String drawerId,
+                        final boolean open, final boolean fromClient) {
+                    System.out.println(timestampMillis + "\t" + sessionId
+                            + "\t" + drawerId + "\t"
+                            + (open ? "open" : "closed") + "\t"
+                            + (fromClient ? "client" : "server"));
+                }
+            });
+        }
+    }
+}
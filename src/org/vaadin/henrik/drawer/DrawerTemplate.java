@@ -0,0 +1,221 @@
+/*
+ *    Copyright 2009 IT Mill Oy
+ *
+ *  Licensed under the Apache License, Version 2.0 (the "License");
+ *  you may not use this file except in compliance with the License.
+ *  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ *  limitations under the License.
+ */
+
+package org.vaadin.henrik.drawer;
+
+import java.io.Serializable;
+
+/**
+ * <p>
+ * The settings of a {@link Drawer}, that may be shared between any number of
+ * Drawers.
+ * </p>
+ * 
+ * <p>
+ * A DrawerTemplate can't be changed. Each <code>with...()</code> method
+ * returns a new DrawerTemplate, or the same one if the setting doesn't change,
+ * so that a template can be created once, kept in a static field, and given to
+ * all the Drawers that look alike, in all sessions. A Drawer that is changed
+ * after its creation gets a template of its own.
+ * </p>
+ * 
+ * @author Henrik Paul / IT Mill Ltd
+ * @see Drawer#fromTemplate(DrawerTemplate, com.vaadin.ui.Component)
+ */
+@SuppressWarnings("serial")
+public final class DrawerTemplate implements Serializable {
+
+    /** The settings of a Drawer that hasn't been configured at all. */
+    public static final DrawerTemplate DEFAULT = new DrawerTemplate(null);
+
+    private static final int DEFAULT_ANIMATION_DURATION = 500;
+
+    private final String defaultCaption;
+    private final int animationDurationMillis;
+    private final int drawerHeight;
+    private final int maxDrawerHeight;
+    private final boolean lazyContent;
+    private final boolean contentFrozenDuringAnimation;
+    private final boolean toggleLatencyTracked;
+
+    /**
+     * Create a new {@link DrawerTemplate} with the default settings.
+     * 
+     * @param defaultCaption
+     *            The string to be used as the default caption.
+     */
+    public DrawerTemplate(final String defaultCaption) {
+        this(defaultCaption, DEFAULT_ANIMATION_DURATION,
+                Drawer.DRAWER_HEIGHT_AUTO, Drawer.DRAWER_MAX_HEIGHT_NONE,
+                false, false, false);
+    }
+
+    private DrawerTemplate(final String defaultCaption,
+            final int animationDurationMillis, final int drawerHeight,
+            final int maxDrawerHeight, final boolean lazyContent,
+            final boolean contentFrozenDuringAnimation,
+            final boolean toggleLatencyTracked) {
+        this.defaultCaption = defaultCaption;
+        this.animationDurationMillis = animationDurationMillis;
+        this.drawerHeight = drawerHeight;
+        this.maxDrawerHeight = maxDrawerHeight;
+        this.lazyContent = lazyContent;
+        this.contentFrozenDuringAnimation = contentFrozenDuringAnimation;
+        this.toggleLatencyTracked = toggleLatencyTracked;
+    }
+
+    /** @see Drawer#getDefaultCaption() */
+    public String getDefaultCaption() {
+        return defaultCaption;
+    }
+
+    /** @see Drawer#setDefaultCaption(String) */
+    public DrawerTemplate withDefaultCaption(final String defaultCaption) {
+        if (defaultCaption == null ? this.defaultCaption == null
+                : defaultCaption.equals(this.defaultCaption)) {
+            return this;
+        } else if (defaultCaption == null && hasDefaultSettings()) {
+            return DEFAULT;
+        }
+        return new DrawerTemplate(defaultCaption, animationDurationMillis,
+                drawerHeight, maxDrawerHeight, lazyContent,
+                contentFrozenDuringAnimation, toggleLatencyTracked);
+    }
+
+    /** @see Drawer#getAnimationDurationMillis() */
+    public int getAnimationDurationMillis() {
+        return animationDurationMillis;
+    }
+
+    /** @see Drawer#setAnimationDurationMillis(int) */
+    public DrawerTemplate withAnimationDurationMillis(
+            final int animationDurationMillis) {
+        if (animationDurationMillis == this.animationDurationMillis) {
+            return this;
+        }
+        return new DrawerTemplate(defaultCaption, animationDurationMillis,
+                drawerHeight, maxDrawerHeight, lazyContent,
+                contentFrozenDuringAnimation, toggleLatencyTracked);
+    }
+
+    /** @see Drawer#getDrawerHeight() */
+    public int getDrawerHeight() {
+        return drawerHeight;
+    }
+
+    /**
+     * @see Drawer#setDrawerHeight(int)
+     * @throws IllegalArgumentException
+     *             if <code>drawerHeightPixels</code> is negative, but not
+     *             {@link Drawer#DRAWER_HEIGHT_AUTO}.
+     */
+    public DrawerTemplate withDrawerHeight(final int drawerHeightPixels) {
+        if (drawerHeightPixels == drawerHeight) {
+            return this;
+        } else if (drawerHeightPixels >= 0
+                || drawerHeightPixels == Drawer.DRAWER_HEIGHT_AUTO) {
+            return new DrawerTemplate(defaultCaption, animationDurationMillis,
+                    drawerHeightPixels, maxDrawerHeight, lazyContent,
+                    contentFrozenDuringAnimation, toggleLatencyTracked);
+        } else {
+            throw new IllegalArgumentException(
+                    "Argument must be 0 or more, or Drawer.DRAWER_HEIGHT_AUTO.");
+        }
+    }
+
+    /** @see Drawer#getMaxDrawerHeight() */
+    public int getMaxDrawerHeight() {
+        return maxDrawerHeight;
+    }
+
+    /**
+     * @see Drawer#setMaxDrawerHeight(int)
+     * @throws IllegalArgumentException
+     *             if <code>maxDrawerHeightPixels</code> is negative, but not
+     *             {@link Drawer#DRAWER_MAX_HEIGHT_NONE}.
+     */
+    public DrawerTemplate withMaxDrawerHeight(final int maxDrawerHeightPixels) {
+        if (maxDrawerHeightPixels == maxDrawerHeight) {
+            return this;
+        } else if (maxDrawerHeightPixels >= 0
+                || maxDrawerHeightPixels == Drawer.DRAWER_MAX_HEIGHT_NONE) {
+            return new DrawerTemplate(defaultCaption, animationDurationMillis,
+                    drawerHeight, maxDrawerHeightPixels, lazyContent,
+                    contentFrozenDuringAnimation, toggleLatencyTracked);
+        } else {
+            throw new IllegalArgumentException(
+                    "Argument must be 0 or more, or Drawer.DRAWER_MAX_HEIGHT_NONE.");
+        }
+    }
+
+    /** @see Drawer#isLazyContent() */
+    public boolean isLazyContent() {
+        return lazyContent;
+    }
+
+    /** @see Drawer#setLazyContent(boolean) */
+    public DrawerTemplate withLazyContent(final boolean lazyContent) {
+        if (lazyContent == this.lazyContent) {
+            return this;
+        }
+        return new DrawerTemplate(defaultCaption, animationDurationMillis,
+                drawerHeight, maxDrawerHeight, lazyContent,
+                contentFrozenDuringAnimation, toggleLatencyTracked);
+    }
+
+    /** @see Drawer#isContentFrozenDuringAnimation() */
+    public boolean isContentFrozenDuringAnimation() {
+        return contentFrozenDuringAnimation;
+    }
+
+    /** @see Drawer#setContentFrozenDuringAnimation(boolean) */
+    public DrawerTemplate withContentFrozenDuringAnimation(final boolean frozen) {
+        if (frozen == contentFrozenDuringAnimation) {
+            return this;
+        }
+        return new DrawerTemplate(defaultCaption, animationDurationMillis,
+                drawerHeight, maxDrawerHeight, lazyContent, frozen,
+                toggleLatencyTracked);
+    }
+
+    /** @see Drawer#isToggleLatencyTracked() */
+    public boolean isToggleLatencyTracked() {
+        return toggleLatencyTracked;
+    }
+
+    /** @see Drawer#setToggleLatencyTracked(boolean) */
+    public DrawerTemplate withToggleLatencyTracked(
+            final boolean toggleLatencyTracked) {
+        if (toggleLatencyTracked == this.toggleLatencyTracked) {
+            return this;
+        }
+        return new DrawerTemplate(defaultCaption, animationDurationMillis,
+                drawerHeight, maxDrawerHeight, lazyContent,
+                contentFrozenDuringAnimation, toggleLatencyTracked);
+    }
+
+    /**
+     * @return <code>true</code> iff all the settings, except for the caption,
+     *         are the same as in {@link #DEFAULT}.
+     */
+    private boolean hasDefaultSettings() {
+        return animationDurationMillis == DEFAULT_ANIMATION_DURATION
+                && drawerHeight == Drawer.DRAWER_HEIGHT_AUTO
+                && maxDrawerHeight == Drawer.DRAWER_MAX_HEIGHT_NONE
+                && !lazyContent && !contentFrozenDuringAnimation
+                && !toggleLatencyTracked;
+    }
+}
@@ -0,0 +1,181 @@
+/*
+ *    Copyright 2009 IT Mill Oy
+ *
+ *  Licensed under the Apache License, Version 2.0 (the "License");
+ *  you may not use this file except in compliance with the License.
+ *  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ *  limitations under the License.
+ */
+
+package org.vaadin.henrik.drawer;
+
+import java.lang.ref.WeakReference;
+import java.util.LinkedHashSet;
+import java.util.Map;
+import java.util.Queue;
+import java.util.WeakHashMap;
+import java.util.concurrent.ConcurrentLinkedQueue;
+
+import com.vaadin.Application;
+
+/**
+ * <p>
+ * Applies the work left for the {@link Drawer Drawers} of one application
+ * outside of its requests: updates posted from other threads, and toggles
+ * held back by the application's {@link ToggleThrottle}.
+ * </p>
+ * 
+ * <p>
+ * Other threads can't change components, nor ask for them to be repainted,
+ * without the application lock, and Vaadin's transaction listeners may not
+ * take the lock either. Instead, one Drawer of the application, the carrier,
+ * has its client send a variable along with every request, from a hook that
+ * the client runs after each response. The work is applied when that variable
+ * is handled, within the request. The carrier is only painted when it's
+ * chosen, not on every request.
+ * </p>
+ * 
+ * <p>
+ * The carrier is chosen among the drawers that have been painted since they
+ * were attached, and can send variables. A drawer that hasn't been painted,
+ * e.g. inside a closed lazy drawer, has no client to send the variable.
+ * </p>
+ * 
+ * @author Henrik Paul / IT Mill Ltd
+ */
+class PendingUpdateApplier {
+
+    /**
+     * The values are only weakly referenced, since the drawers in them
+     * reference the application through their parents. The attached drawers
+     * keep their applier alive.
+     */
+    private static final Map<Application, WeakReference<PendingUpdateApplier>> APPLIERS = new WeakHashMap<Application, WeakReference<PendingUpdateApplier>>();
+
+    /** The drawers with work to do. Appended to from any thread. */
+    private final Queue<Drawer> waitingDrawers = new ConcurrentLinkedQueue<Drawer>();
+
+    /**
+     * The attached drawers that have been painted, the most recently painted
+     * last. Only used while holding the application lock.
+     */
+    private final LinkedHashSet<Drawer> paintedDrawers = new LinkedHashSet<Drawer>();
+
+    /** Only used while holding the application lock. */
+    private Drawer carrier = null;
+
+    private PendingUpdateApplier() {
+        // use getApplier(Application)
+    }
+
+    /**
+     * Get the applier of an application.
+     * 
+     * @param application
+     *            The application
+     * @return The application's applier. Never <code>null</code>.
+     */
+    static PendingUpdateApplier getApplier(final Application application) {
+        synchronized (APPLIERS) {
+            final WeakReference<PendingUpdateApplier> reference = APPLIERS
+                    .get(application);
+            PendingUpdateApplier applier = (reference != null) ? reference
+                    .get() : null;
+            if (applier == null) {
+                applier = new PendingUpdateApplier();
+                APPLIERS.put(application,
+                        new WeakReference<PendingUpdateApplier>(applier));
+            }
+            return applier;
+        }
+    }
+
+    /** Called when a drawer is detached. */
+    void detached(final Drawer drawer) {
+        paintedDrawers.remove(drawer);
+        if (carrier == drawer) {
+            carrier = null;
+            replaceCarrier();
+        }
+    }
+
+    /**
+     * Called when a drawer is painted. The drawer becomes the carrier, if
+     * there is none that can send the variable.
+     * 
+     * @return <code>true</code> iff the drawer's client should send the
+     *         variable.
+     */
+    boolean painted(final Drawer drawer) {
+        // moved last, as the most recently painted.
+        paintedDrawers.remove(drawer);
+        paintedDrawers.add(drawer);
+
+        if ((carrier == null || !carrier.isEnabled()) && drawer.isEnabled()) {
+            carrier = drawer;
+        }
+        return carrier == drawer;
+    }
+
+    /**
+     * Make sure that the carrier can still send the variable. Must be called
+     * while holding the application lock.
+     */
+    void checkCarrier() {
+        if (carrier != null && !carrier.isEnabled()) {
+            replaceCarrier();
+        }
+    }
+
+    /**
+     * Make the most recently painted drawer that can send variables the
+     * carrier, and repaint it so that its client knows.
+     */
+    private void replaceCarrier() {
+        Drawer replacement = null;
+        for (final Drawer drawer : paintedDrawers) {
+            if (drawer.isEnabled()) {
+                replacement = drawer;
+            }
+        }
+
+        if (replacement != null && replacement != carrier) {
+            carrier = replacement;
+            replacement.requestRepaint();
+        }
+    }
+
+    /**
+     * Have a drawer's work applied during the next request. May be called
+     * from any thread.
+     */
+    void schedule(final Drawer drawer) {
+        waitingDrawers.offer(drawer);
+    }
+
+    /**
+     * Apply the work of the drawers that were waiting when this was called.
+     * Drawers that schedule themselves again are left for the next request.
+     * Must be called while holding the application lock.
+     */
+    void applyWaitingWork() {
+        if (waitingDrawers.isEmpty()) {
+            return;
+        }
+
+        for (int waiting = waitingDrawers.size(); waiting > 0; waiting--) {
+            final Drawer drawer = waitingDrawers.poll();
+            if (drawer == null) {
+                break;
+            }
+            drawer.applyWaitingWork();
+        }
+    }
+}
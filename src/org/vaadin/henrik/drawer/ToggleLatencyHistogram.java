@@ -0,0 +1,231 @@
+/*
+ *    Copyright 2009 IT Mill Oy
+ *
+ *  Licensed under the Apache License, Version 2.0 (the "License");
+ *  you may not use this file except in compliance with the License.
+ *  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ *  limitations under the License.
+ */
+
+package org.vaadin.henrik.drawer;
+
+import java.io.File;
+import java.io.FileWriter;
+import java.io.IOException;
+import java.io.PrintWriter;
+import java.util.Map;
+import java.util.WeakHashMap;
+import java.util.concurrent.atomic.AtomicLongArray;
+
+import com.vaadin.Application;
+
+/**
+ * <p>
+ * A fixed-size histogram of the latencies users experience when toggling a
+ * {@link Drawer}, from the toggle being sent to the server to the server's
+ * response being applied on the client.
+ * </p>
+ * 
+ * <p>
+ * Values below 32ms are recorded exactly, and larger values with a precision
+ * of 1/16th of their power of two. Recording is thread-safe and doesn't
+ * allocate.
+ * </p>
+ * 
+ * @author Henrik Paul / IT Mill Ltd
+ * @see Drawer#setToggleLatencyTracked(boolean)
+ */
+public class ToggleLatencyHistogram {
+
+    private static final int EXACT_BUCKETS = 32;
+    private static final int SUB_BUCKET_BITS = 4;
+    private static final int SUB_BUCKETS = 1 << SUB_BUCKET_BITS;
+    private static final int FIRST_EXPONENT = 5;
+    private static final int LAST_EXPONENT = 30;
+    private static final int BUCKETS = EXACT_BUCKETS
+            + (LAST_EXPONENT - FIRST_EXPONENT + 1) * SUB_BUCKETS;
+
+    private static final ToggleLatencyHistogram NODE_HISTOGRAM = new ToggleLatencyHistogram();
+
+    private static final Map<Application, ToggleLatencyHistogram> APPLICATION_HISTOGRAMS = new WeakHashMap<Application, ToggleLatencyHistogram>();
+
+    private final AtomicLongArray counts = new AtomicLongArray(BUCKETS);
+
+    /**
+     * Get the histogram of all toggles recorded in this JVM.
+     * 
+     * @return The node-wide histogram.
+     */
+    public static ToggleLatencyHistogram getNodeHistogram() {
+        return NODE_HISTOGRAM;
+    }
+
+    /**
+     * Get the histogram of the toggles recorded within one application.
+     * 
+     * @param application
+     *            The application instance
+     * @return The application's histogram. Never <code>null</code>.
+     */
+    public static ToggleLatencyHistogram getApplicationHistogram(
+            final Application application) {
+        synchronized (APPLICATION_HISTOGRAMS) {
+            ToggleLatencyHistogram histogram = APPLICATION_HISTOGRAMS
+                    .get(application);
+            if (histogram == null) {
+                histogram = new ToggleLatencyHistogram();
+                APPLICATION_HISTOGRAMS.put(application, histogram);
+            }
+            return histogram;
+        }
+    }
+
+    /**
+     * Record one latency.
+     * 
+     * @param latencyMillis
+     *            The latency in milliseconds. Negative values are ignored.
+     */
+    public void recordValue(final long latencyMillis) {
+        if (latencyMillis >= 0) {
+            counts.incrementAndGet(getBucketIndex(latencyMillis));
+        }
+    }
+
+    /**
+     * Get the number of recorded latencies.
+     * 
+     * @return The total count of recorded values.
+     */
+    public long getTotalCount() {
+        long total = 0;
+        for (int i = 0; i < BUCKETS; i++) {
+            total += counts.get(i);
+        }
+        return total;
+    }
+
+    /**
+     * Get the latency at or below which the given percentage of the recorded
+     * latencies fall.
+     * 
+     * @param percentile
+     *            The percentile, between 0 and 100.
+     * @return The latency in milliseconds, or 0 if nothing has been recorded.
+     */
+    public long getValueAtPercentile(final double percentile) {
+        final long total = getTotalCount();
+        if (total == 0) {
+            return 0;
+        }
+
+        final double boundedPercentile = Math.min(Math.max(percentile, 0), 100);
+        final long countAtPercentile = Math.max(1,
+                (long) Math.ceil(boundedPercentile / 100 * total));
+
+        long seen = 0;
+        for (int i = 0; i < BUCKETS; i++) {
+            seen += counts.get(i);
+            if (seen >= countAtPercentile) {
+                return getBucketHighestValue(i);
+            }
+        }
+        return getBucketHighestValue(BUCKETS - 1);
+    }
+
+    /**
+     * Get the highest recorded latency, within the histogram's precision.
+     * 
+     * @return The latency in milliseconds, or 0 if nothing has been recorded.
+     */
+    public long getMaxValue() {
+        for (int i = BUCKETS - 1; i >= 0; i--) {
+            if (counts.get(i) > 0) {
+                return getBucketHighestValue(i);
+            }
+        }
+        return 0;
+    }
+
+    /** Forget all recorded latencies. */
+    public void reset() {
+        for (int i = 0; i < BUCKETS; i++) {
+            counts.set(i, 0);
+        }
+    }
+
+    /**
+     * Write the non-empty buckets and a few common percentiles into a text
+     * file.
+     * 
+     * @param file
+     *            The file to write into. An existing file is overwritten.
+     * @throws IOException
+     *             if the file could not be written.
+     */
+    public void writeTo(final File file) throws IOException {
+        final PrintWriter writer = new PrintWriter(new FileWriter(file));
+        try {
+            writer.println("# total " + getTotalCount());
+            writer.println("# p50 " + getValueAtPercentile(50));
+            writer.println("# p90 " + getValueAtPercentile(90));
+            writer.println("# p99 " + getValueAtPercentile(99));
+            writer.println("# max " + getMaxValue());
+            writer.println("# lowest\thighest\tcount");
+            for (int i = 0; i < BUCKETS; i++) {
+                final long count = counts.get(i);
+                if (count > 0) {
+                    writer.println(getBucketLowestValue(i) + "\t"
+                            + getBucketHighestValue(i) + "\t" + count);
+                }
+            }
+        } finally {
+            writer.close();
+        }
+
+        if (writer.checkError()) {
+            throw new IOException("Could not write " + file);
+        }
+    }
+
+    private static int getBucketIndex(final long value) {
+        if (value < EXACT_BUCKETS) {
+            return (int) value;
+        }
+
+        final int exponent = 63 - Long.numberOfLeadingZeros(value);
+        if (exponent > LAST_EXPONENT) {
+            return BUCKETS - 1;
+        }
+
+        final int subBucket = (int) (value >> (exponent - SUB_BUCKET_BITS))
+                & (SUB_BUCKETS - 1);
+        return EXACT_BUCKETS + (exponent - FIRST_EXPONENT) * SUB_BUCKETS
+                + subBucket;
+    }
+
+    private static long getBucketLowestValue(final int index) {
+        if (index < EXACT_BUCKETS) {
+            return index;
+        }
+
+        final int exponent = FIRST_EXPONENT + (index - EXACT_BUCKETS)
+                / SUB_BUCKETS;
+        final int subBucket = (index - EXACT_BUCKETS) % SUB_BUCKETS;
+        return ((long) (SUB_BUCKETS + subBucket)) << (exponent - SUB_BUCKET_BITS);
+    }
+
+    private static long getBucketHighestValue(final int index) {
+        if (index == BUCKETS - 1) {
+            return Long.MAX_VALUE;
+        }
+        return getBucketLowestValue(index + 1) - 1;
+    }
+}
@@ -0,0 +1,200 @@
+/*
+ *    Copyright 2009 IT Mill Oy
+ *
+ *  Licensed under the Apache License, Version 2.0 (the "License");
+ *  you may not use this file except in compliance with the License.
+ *  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ *  limitations under the License.
+ */
+
+package org.vaadin.henrik.drawer;
+
+import java.util.Map;
+import java.util.WeakHashMap;
+import java.util.concurrent.atomic.AtomicLong;
+
+import com.vaadin.Application;
+
+/**
+ * <p>
+ * A limit on how often the {@link Drawer Drawers} of one application may be
+ * toggled from the client.
+ * </p>
+ * 
+ * <p>
+ * The limit works like a token bucket: toggles may come in bursts of a given
+ * size, after which they are accepted at a given rate. A toggle over the limit
+ * is not applied right away. Instead, the drawer remembers the last state it
+ * was asked for, and applies it during the first later request that the limit
+ * allows it in. Until then, the drawer is painted in the state it was asked
+ * for, so that the client isn't toggled back and forth.
+ * </p>
+ * 
+ * <p>
+ * Toggles that don't change anything on the server, and the closing of a
+ * drawer of a {@link DrawerGroup}, aren't limited, since the client closes
+ * those drawers by itself when it opens another one of the group.
+ * </p>
+ * 
+ * @author Henrik Paul / IT Mill Ltd
+ */
+public class ToggleThrottle {
+
+    private static final Map<Application, ToggleThrottle> THROTTLES = new WeakHashMap<Application, ToggleThrottle>();
+
+    private static final AtomicLong nodeThrottledCount = new AtomicLong();
+
+    /**
+     * Whether a limit has ever been set in this JVM. Until then, drawers don't
+     * need to look for their application's throttle at all.
+     */
+    private static volatile boolean anyLimitSet = false;
+
+    /**
+     * The time between two toggles at the sustained rate, or 0 if toggles
+     * aren't limited.
+     */
+    private long intervalNanos = 0;
+
+    /** How far ahead of time {@link #nextFreeNanos} may be. */
+    private long burstNanos = 0;
+
+    /**
+     * When the next toggle would be due, if toggles came at the sustained
+     * rate. The bucket is empty when this is {@link #burstNanos} ahead.
+     */
+    private long nextFreeNanos = 0;
+
+    private long throttledCount = 0;
+
+    private ToggleThrottle() {
+        // use getThrottle(Application)
+    }
+
+    /**
+     * Get the toggle limit of an application. Initially, the application's
+     * toggles aren't limited.
+     * 
+     * @param application
+     *            The application. Each user session has its own application
+     *            instance.
+     * @return The application's {@link ToggleThrottle}. Never
+     *         <code>null</code>.
+     */
+    public static ToggleThrottle getThrottle(final Application application) {
+        synchronized (THROTTLES) {
+            ToggleThrottle throttle = THROTTLES.get(application);
+            if (throttle == null) {
+                throttle = new ToggleThrottle();
+                THROTTLES.put(application, throttle);
+            }
+            return throttle;
+        }
+    }
+
+    /**
+     * Get the throttle of an application, if its toggles are limited.
+     * 
+     * @param application
+     *            The application.
+     * @return The application's {@link ToggleThrottle}, or <code>null</code>
+     *         if its toggles aren't limited. No throttle is created for an
+     *         application that has none.
+     */
+    static ToggleThrottle getLimitingThrottle(final Application application) {
+        if (!anyLimitSet) {
+            return null;
+        }
+
+        final ToggleThrottle throttle;
+        synchronized (THROTTLES) {
+            throttle = THROTTLES.get(application);
+        }
+        return (throttle != null && throttle.isLimited()) ? throttle : null;
+    }
+
+    /**
+     * Get how many toggles have been throttled in this JVM.
+     * 
+     * @return The count of throttled toggles.
+     */
+    public static long getNodeThrottledCount() {
+        return nodeThrottledCount.get();
+    }
+
+    /**
+     * Limit how often the {@link Drawer Drawers} of the application may be
+     * toggled from the client. Replaces any previous limit.
+     * 
+     * @param togglesPerSecond
+     *            How many toggles per second are accepted, once the burst has
+     *            been used.
+     * @param burst
+     *            How many toggles are accepted in a quick succession. Must be
+     *            1 or more.
+     */
+    public synchronized void setLimit(final double togglesPerSecond,
+            final int burst) {
+        if (togglesPerSecond <= 0 || burst < 1) {
+            throw new IllegalArgumentException(
+                    "The rate must be positive, and the burst 1 or more.");
+        }
+
+        intervalNanos = Math.max(1, (long) (1000000000L / togglesPerSecond));
+        burstNanos = intervalNanos * (burst - 1);
+        nextFreeNanos = System.nanoTime();
+        anyLimitSet = true;
+    }
+
+    /** Stop limiting the toggles of the application. */
+    public synchronized void removeLimit() {
+        intervalNanos = 0;
+    }
+
+    private synchronized boolean isLimited() {
+        return intervalNanos != 0;
+    }
+
+    /**
+     * Get how many toggles have been throttled in this application.
+     * 
+     * @return The count of throttled toggles.
+     */
+    public synchronized long getThrottledCount() {
+        return throttledCount;
+    }
+
+    /**
+     * Check whether a toggle is allowed now, and take it into account if it
+     * is.
+     * 
+     * @return <code>true</code> iff the toggle may be applied.
+     */
+    synchronized boolean tryAcquire() {
+        if (intervalNanos == 0) {
+            return true;
+        }
+
+        final long now = System.nanoTime();
+        final long nextFree = Math.max(nextFreeNanos, now);
+        if (nextFree - now > burstNanos) {
+            return false;
+        } else {
+            nextFreeNanos = nextFree + intervalNanos;
+            return true;
+        }
+    }
+
+    /** Record a toggle that was not allowed by {@link #tryAcquire()}. */
+    synchronized void throttled() {
+        throttledCount++;
+        nodeThrottledCount.incrementAndGet();
+    }
+}
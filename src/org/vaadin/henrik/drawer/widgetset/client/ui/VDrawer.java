@@ -16,22 +16,36 @@
 
 package org.vaadin.henrik.drawer.widgetset.client.ui;
 
+import java.util.ArrayList;
+import java.util.HashMap;
 import java.util.Iterator;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
 import java.util.Set;
 
 import com.google.gwt.animation.client.Animation;
+import com.google.gwt.core.client.JavaScriptObject;
+import com.google.gwt.dom.client.Style;
 import com.google.gwt.event.dom.client.ClickEvent;
 import com.google.gwt.event.dom.client.ClickHandler;
+import com.google.gwt.event.dom.client.ScrollEvent;
+import com.google.gwt.event.dom.client.ScrollHandler;
+import com.google.gwt.event.logical.shared.ResizeEvent;
+import com.google.gwt.event.logical.shared.ResizeHandler;
 import com.google.gwt.event.shared.HandlerRegistration;
 import com.google.gwt.user.client.Command;
 import com.google.gwt.user.client.DOM;
 import com.google.gwt.user.client.DeferredCommand;
 import com.google.gwt.user.client.Element;
+import com.google.gwt.user.client.Timer;
+import com.google.gwt.user.client.Window;
 import com.google.gwt.user.client.ui.Composite;
 import com.google.gwt.user.client.ui.HasWidgets;
 import com.google.gwt.user.client.ui.HorizontalPanel;
 import com.google.gwt.user.client.ui.Label;
 import com.google.gwt.user.client.ui.Panel;
+import com.google.gwt.user.client.ui.RootPanel;
 import com.google.gwt.user.client.ui.SimplePanel;
 import com.google.gwt.user.client.ui.VerticalPanel;
 import com.google.gwt.user.client.ui.Widget;
@@ -42,6 +56,8 @@ import com.vaadin.terminal.gwt.client.RenderSpace;
 import com.vaadin.terminal.gwt.client.UIDL;
 import com.vaadin.terminal.gwt.client.Util;
 import com.vaadin.terminal.gwt.client.VCaption;
+import com.vaadin.terminal.gwt.client.ui.VPanel;
+import com.vaadin.terminal.gwt.client.ui.VView;
 
 /**
  * @author Henrik Paul / IT Mill Ltd
@@ -49,24 +65,105 @@ import com.vaadin.terminal.gwt.client.VCaption;
 public class VDrawer extends Composite implements Paintable, Container,
         HasWidgets {
 
-    private class DrawerAnimation extends Animation {
-        private final boolean expand;
+    /**
+     * An {@link Animation} that changes the size of this drawer, and lets the
+     * surroundings know about it.
+     */
+    private abstract class SizeAnimation extends Animation {
+        /** The outer drawer following this animation, if any. */
+        private VDrawer follower = null;
 
-        private DrawerAnimation(final boolean expand) {
-            this.expand = expand;
+        @Override
+        protected void onStart() {
+            follower = startNestedAnimation();
+            if (freezeContent && drawer.getWidget() != null) {
+                freezeContent(getFrozenContentHeight());
+            }
+            super.onStart();
         }
 
         @Override
         protected void onUpdate(final double progress) {
-            final double multiplier = expand ? progress : 1 - progress;
+            updateSize(progress);
+
+            /*
+             * A following drawer stops the notification, after the layouts
+             * in between have been laid out.
+             */
+            if (follower == null
+                    || Util.getLayout(VDrawer.this) != follower) {
+                Util.notifyParentOfSizeChange(VDrawer.this, false);
+            }
+        }
+
+        @Override
+        protected void onComplete() {
+            super.onComplete();
+            finish();
+        }
+
+        /**
+         * By default, a cancelled animation jumps to its last frame. A
+         * cancelled animation is always replaced by a new one, or by a size
+         * set explicitly, so that frame would only flicker, and notify the
+         * parent in vain.
+         */
+        @Override
+        protected void onCancel() {
+            finish();
+        }
+
+        /** Clean up, whether the animation was completed or cancelled. */
+        protected void finish() {
+            if (runningAnimation == this) {
+                runningAnimation = null;
+            }
+            unfreezeContent();
+            if (follower != null) {
+                follower.stopFollowingNestedAnimation();
+                follower = null;
+            }
+        }
+
+        /**
+         * @return The height, in pixels, the content has after the
+         *         animation.
+         */
+        protected int getFrozenContentHeight() {
+            return drawer.getWidget().getOffsetHeight();
+        }
+
+        protected abstract void updateSize(double progress);
+    }
+
+    private class DrawerAnimation extends SizeAnimation {
+        private final boolean expand;
+        private final int fromHeight;
+
+        private DrawerAnimation(final boolean expand, final int fromHeight) {
+            this.expand = expand;
+            this.fromHeight = fromHeight;
+        }
 
-            if (multiplier == 0) {
-                setDrawerVisible(expand);
+        @Override
+        protected void updateSize(final double progress) {
+            if (expand && progress == 0) {
+                setDrawerVisible(true);
+            } else if (!expand && progress == 1) {
+                setDrawerVisible(false);
             }
 
-            drawer.setHeight((drawerHeight * multiplier) + "px");
+            final int toHeight = expand ? drawerHeight : 0;
+            final long grownHeight = Math.round((toHeight - fromHeight)
+                    * progress);
+            setDrawerPanelHeight((fromHeight + grownHeight) + "px");
+        }
 
-            Util.notifyParentOfSizeChange(VDrawer.this, false);
+        @Override
+        protected int getFrozenContentHeight() {
+            final int contentHeight = super.getFrozenContentHeight();
+            return expand ? Math.max(contentHeight, drawerHeight)
+                    : contentHeight;
         }
 
         /**
@@ -99,16 +196,64 @@ public class VDrawer extends Composite implements Paintable, Container,
         }
     }
 
+    /**
+     * An offscreen panel for new drawer content to be rendered in. It's added
+     * to the document body only while it's used, so it doesn't add to the
+     * drawer's own table. It's a {@link Container}, so that the content is
+     * sized against the drawer, and not the browser window.
+     */
+    private class Buffer extends SimplePanel implements Container {
+        public Buffer() {
+            setStylePrimaryName(BUFFER_CLASSNAME);
+        }
+
+        public void updateFromUIDL(final UIDL uidl,
+                final ApplicationConnection client) {
+            // never painted; the content is painted through the drawer.
+        }
+
+        public boolean hasChildComponent(final Widget component) {
+            return component.getParent() == this;
+        }
+
+        public void replaceChildComponent(final Widget oldComponent,
+                final Widget newComponent) {
+            if (oldComponent == getWidget()) {
+                setWidget(newComponent);
+            }
+        }
+
+        public void updateCaption(final Paintable component, final UIDL uidl) {
+            // the drawer reads the caption once the content is moved there.
+        }
+
+        public boolean requestLayout(final Set<Paintable> children) {
+            // the drawer lays the content out once it's moved there.
+            return true;
+        }
+
+        public RenderSpace getAllocatedSpace(final Widget child) {
+            return VDrawer.this.getAllocatedSpace(child);
+        }
+    }
+
     private class CaptionIcon extends Widget {
+        private boolean expanded = false;
+
         public CaptionIcon() {
             final Element root = DOM.createDiv();
             root.setInnerHTML("&nbsp;");
+            root.setClassName(CAPTION_ICON_COLLAPSED_CLASSNAME);
 
             setElement(root);
-            setExpanded(false);
         }
 
         public void setExpanded(final boolean isExpanded) {
+            if (isExpanded == expanded) {
+                return;
+            }
+
+            expanded = isExpanded;
             if (isExpanded) {
                 getElement().setClassName(CAPTION_ICON_EXPANDED_CLASSNAME);
             } else {
@@ -123,6 +268,7 @@ public class VDrawer extends Composite implements Paintable, Container,
     /** Set the CSS class name to allow styling. */
     public static final String CLASSNAME = "v-" + TAGNAME;
     public static final String DRAWER_CLASSNAME = CLASSNAME + "-content";
+    public static final String BUFFER_CLASSNAME = CLASSNAME + "-buffer";
     public static final String CAPTION_CLASSNAME = CLASSNAME + "-caption";
     public static final String CAPTION_ICON_EXPANDED_CLASSNAME = CAPTION_CLASSNAME
             + "-expanded";
@@ -133,34 +279,213 @@ public class VDrawer extends Composite implements Paintable, Container,
     public static final String ATTRIBUTE_ANIMATE__BOOLEAN = "animate";
     public static final String ATTRIBUTE_ANIMATION_DURATION__INT = "animationSpeed";
     public static final String ATTRIBUTE_DRAWER_HEIGHT__INT = "drawerHeight";
+    public static final String ATTRIBUTE_MAX_DRAWER_HEIGHT__INT = "maxDrawerHeight";
     public static final String ATTRIBUTE_DRAWER_HAS_CONTENT__BOOLEAN = "hascontent";
     public static final String ATTRIBUTE_CALCULATE_HEADER_WIDTH__BOOLEAN = "calculateWidth";
+    public static final String ATTRIBUTE_TRACK_LATENCY__BOOLEAN = "trackLatency";
+    public static final String ATTRIBUTE_GROUP__STRING = "group";
+    public static final String ATTRIBUTE_FREEZE_CONTENT__BOOLEAN = "freezeContent";
+    public static final String ATTRIBUTE_GROUP_MAX_OPEN__INT = "groupMaxOpen";
+    public static final String ATTRIBUTE_SYNC__BOOLEAN = "sync";
+    public static final String ATTRIBUTE_CONTENT_PENDING__BOOLEAN = "contentPending";
 
     public static final String VARIABLE_DRAWERVISIBLE__BOOLEAN = "drawerVisible";
+    public static final String VARIABLE_TOGGLE_LATENCY__INT = "toggleLatency";
+    public static final String VARIABLE_SYNC__BOOLEAN = "sync";
+
+    /** Caption clicks within this time are sent to the server as one. */
+    private static final int TOGGLE_COALESCE_MILLIS = 300;
+
+    /**
+     * How long to wait between slices of measurements, in browsers that can't
+     * tell when they're idle.
+     */
+    private static final int IDLE_MEASUREMENT_DELAY_MILLIS = 50;
+
+    /** How long one such slice of measurements may take. */
+    private static final int IDLE_MEASUREMENT_SLICE_MILLIS = 10;
+
+    /** Closed drawers whose heights are to be measured when idle, in order. */
+    private static final Set<VDrawer> unmeasuredDrawers = new LinkedHashSet<VDrawer>();
+
+    /**
+     * Measures closed drawers a few at a time, in browsers without
+     * <code>requestIdleCallback</code>. The browser gets to handle other
+     * events between the slices.
+     */
+    private static final Timer idleMeasurer = new Timer() {
+        @Override
+        public void run() {
+            final long sliceEnd = System.currentTimeMillis()
+                    + IDLE_MEASUREMENT_SLICE_MILLIS;
+            while (!unmeasuredDrawers.isEmpty()
+                    && System.currentTimeMillis() < sliceEnd) {
+                measureNextDrawer();
+            }
+
+            if (!unmeasuredDrawers.isEmpty()) {
+                schedule(IDLE_MEASUREMENT_DELAY_MILLIS);
+            }
+        }
+    };
+
+    /**
+     * How far outside the viewport, in viewport heights, a drawer needs to be
+     * for its animations and layouts to be skipped.
+     */
+    private static final double OFFSCREEN_MARGIN_VIEWPORTS = 1.0;
+
+    /** Drawers that skipped a layout because they were far offscreen. */
+    private static final List<VDrawer> deferredLayouts = new ArrayList<VDrawer>();
+
+    private static boolean viewportHandlersAdded = false;
+
+    /**
+     * Marks the elements of the views and panels whose scrolling runs the
+     * deferred layouts, without keeping the widgets around after they're
+     * gone.
+     */
+    private static final String SCROLL_HANDLED_PROPERTY = "drawerScrollHandled";
+
+    /** About one frame, so that a burst of scroll events runs one check. */
+    private static final int DEFERRED_LAYOUT_CHECK_DELAY_MILLIS = 16;
+
+    /**
+     * Runs the deferred layouts once for all the scroll and resize events
+     * within {@link #DEFERRED_LAYOUT_CHECK_DELAY_MILLIS}.
+     */
+    private static final Timer deferredLayoutChecker = new Timer() {
+        @Override
+        public void run() {
+            deferredLayoutCheckScheduled = false;
+            runDeferredLayouts();
+        }
+    };
+
+    private static boolean deferredLayoutCheckScheduled = false;
+
+    private static final ScrollHandler deferredLayoutScrollHandler = new ScrollHandler() {
+        public void onScroll(final ScrollEvent event) {
+            scheduleDeferredLayoutCheck();
+        }
+    };
+
+    /** The attached drawers whose clients send the sync variable. */
+    private static final List<VDrawer> syncCarriers = new ArrayList<VDrawer>();
+
+    private static boolean postRequestHookAdded = false;
+
+    /** The open drawers of each group, the most recently opened last. */
+    private static final Map<String, List<VDrawer>> openDrawersByGroup = new HashMap<String, List<VDrawer>>();
 
     private final Panel root = new VerticalPanel();
     private final SimplePanel drawer = new SimplePanel();
 
+    private final Buffer buffer = new Buffer();
+
     private final Widget loading = new Label();
     private String componentCaption = null;
     private boolean componentCaptionIsVisible = true;
     private String defaultCaption = "";
 
     private final Label captionLabel = new Label(defaultCaption);
+    private String shownCaption = defaultCaption;
     private final CaptionIcon captionIcon = new CaptionIcon();
     private CaptionPanel captionPanel = new CaptionPanel(captionIcon,
             captionLabel);
 
     private boolean drawerHasContents = false;
 
+    /**
+     * Whether a placeholder stands in for lazy content that is sent only once
+     * the server has opened the drawer.
+     */
+    private boolean contentPending = false;
+
+    /** Whether the drawer has been opened, but waits for its lazy content. */
+    private boolean waitingForContent = false;
+
     private int animationDuration = 500;
     private int drawerHeight = -1;
+    private int maxDrawerHeight = -1;
     private boolean calculateDrawerHeight = true;
     private boolean calculateCaptionWidth = true;
     private boolean animate = false;
 
     private boolean disabled = false;
 
+    /** Whether the server has chosen this drawer to send the sync variable. */
+    private boolean syncCarrier = false;
+
+    /*
+     * The last values written to the DOM, so that unchanged values from the
+     * server don't cause needless DOM writes.
+     */
+    private boolean drawerPanelVisible = true;
+    private String drawerPanelHeight = null;
+    private String drawerPanelWidth = null;
+    private String drawerPanelOverflow = "";
+    private String captionPanelWidth = null;
+
+    /** The state the drawer is shown in, or is being animated towards. */
+    private boolean drawerOpen = false;
+
+    /** The state the server last knew of. */
+    private boolean serverDrawerOpen = false;
+
+    /** Whether a toggle has been made on the client, but not yet sent. */
+    private boolean togglePending = false;
+
+    /** The open, close or resize animation running, if any. */
+    private SizeAnimation runningAnimation = null;
+
+    private boolean trackLatency = false;
+
+    private boolean freezeContent = false;
+
+    /**
+     * The content's own height and width styles while it's frozen, or
+     * <code>null</code> if it isn't.
+     */
+    private String frozenContentHeight = null;
+    private String frozenContentWidth = null;
+
+    /** Whether the content asked for a layout while it was frozen. */
+    private boolean layoutRequestedWhileFrozen = false;
+
+    private String group = null;
+    private int groupMaxOpen = 1;
+
+    /**
+     * When the toggle was sent to the server, or -1 if no toggle is being
+     * measured. The coalescing delay before sending isn't part of the latency.
+     */
+    private long toggleStartMillis = -1;
+
+    private final Timer toggleSender = new Timer() {
+        @Override
+        public void run() {
+            togglePending = false;
+            if (drawerOpen != serverDrawerOpen && client != null) {
+                serverDrawerOpen = drawerOpen;
+                if (trackLatency) {
+                    toggleStartMillis = System.currentTimeMillis();
+                }
+                client.updateVariable(uidlId, VARIABLE_DRAWERVISIBLE__BOOLEAN,
+                        drawerOpen, true);
+            }
+        }
+    };
+
+    /**
+     * How many animations of directly nested drawers this drawer is currently
+     * following with an automatic height.
+     */
+    private int followedAnimations = 0;
+
+    /** The outer drawer following this one while it follows animations. */
+    private VDrawer followingOuterDrawer = null;
+
     /**
      * The Vaadin property, intended for a {@link VCaption}, to tell whether the
      * caption is invisible.
@@ -240,16 +565,57 @@ public class VDrawer extends Composite implements Paintable, Container,
         }
 
         if (uidl.hasAttribute(ATTRIBUTE_DRAWER_HEIGHT__INT)) {
-            drawerHeight = uidl.getIntAttribute(ATTRIBUTE_DRAWER_HEIGHT__INT);
+            final int newDrawerHeight = uidl
+                    .getIntAttribute(ATTRIBUTE_DRAWER_HEIGHT__INT);
 
-            if (drawerHeight == -1) {
+            if (newDrawerHeight != -1) {
+                calculateDrawerHeight = false;
+                drawerHeight = newDrawerHeight;
+            } else if (!calculateDrawerHeight) {
+                /*
+                 * Only a change to an automatic height needs adjusting. Every
+                 * paint carries the attribute, and the height that has been
+                 * measured already is still valid.
+                 */
                 calculateDrawerHeight = true;
+                drawerHeight = -1;
                 adjustForAutoDimensions();
-            } else {
-                calculateDrawerHeight = false;
             }
         }
 
+        if (uidl.hasAttribute(ATTRIBUTE_MAX_DRAWER_HEIGHT__INT)) {
+            final int newMaxDrawerHeight = uidl
+                    .getIntAttribute(ATTRIBUTE_MAX_DRAWER_HEIGHT__INT);
+            if (newMaxDrawerHeight != maxDrawerHeight) {
+                maxDrawerHeight = newMaxDrawerHeight;
+                if (calculateDrawerHeight) {
+                    drawerHeight = -1;
+                    adjustForAutoDimensions();
+                }
+            }
+        }
+
+        if (uidl.hasAttribute(ATTRIBUTE_GROUP__STRING)) {
+            final String newGroup = uidl
+                    .getStringAttribute(ATTRIBUTE_GROUP__STRING);
+            if (!newGroup.equals(group)) {
+                leaveGroup();
+                group = newGroup;
+            }
+            groupMaxOpen = uidl.getIntAttribute(ATTRIBUTE_GROUP_MAX_OPEN__INT);
+        } else {
+            leaveGroup();
+        }
+
+        freezeContent = uidl.hasAttribute(ATTRIBUTE_FREEZE_CONTENT__BOOLEAN)
+                && uidl.getBooleanAttribute(ATTRIBUTE_FREEZE_CONTENT__BOOLEAN);
+
+        contentPending = uidl.hasAttribute(ATTRIBUTE_CONTENT_PENDING__BOOLEAN)
+                && uidl.getBooleanAttribute(ATTRIBUTE_CONTENT_PENDING__BOOLEAN);
+
+        trackLatency = uidl.hasAttribute(ATTRIBUTE_TRACK_LATENCY__BOOLEAN)
+                && uidl.getBooleanAttribute(ATTRIBUTE_TRACK_LATENCY__BOOLEAN);
+
         if (uidl.hasAttribute(ATTRIBUTE_CALCULATE_HEADER_WIDTH__BOOLEAN)) {
             calculateCaptionWidth = uidl
                     .getBooleanAttribute(ATTRIBUTE_CALCULATE_HEADER_WIDTH__BOOLEAN);
@@ -265,28 +631,56 @@ public class VDrawer extends Composite implements Paintable, Container,
                 if (drawer.getWidget() == loading) {
                     // if it's the initial component, just remove it.
                     drawer.clear();
-                    drawer.setHeight("0px");
+                    setDrawerPanelHeight("0px");
                 }
 
                 final Paintable oldDrawerContent = (Paintable) drawer
                         .getWidget();
-                drawer.setWidget(widgetCopyOfPaintable);
+
+                /*
+                 * A closed drawer's height isn't needed until it's opened, so
+                 * adjustForAutoDimensions() leaves it to be measured when
+                 * idle.
+                 */
+                int requiredHeight = -1;
+                if (isDrawerVisible() && isAttached()) {
+                    /*
+                     * Render and measure the new component out of sight, so
+                     * that the visible drawer is changed only once.
+                     */
+                    final int drawerWidth = drawer.getOffsetWidth();
+                    buffer.setWidth(drawerWidth > 0 ? drawerWidth + "px" : "");
+                    buffer.setWidget(widgetCopyOfPaintable);
+                    RootPanel.get().add(buffer);
+                    paintable.updateFromUIDL(drawerUIDL, client);
+
+                    if (calculateDrawerHeight && drawerOpen) {
+                        requiredHeight = Util
+                                .getRequiredHeight(widgetCopyOfPaintable);
+                    }
+
+                    drawer.setWidget(widgetCopyOfPaintable);
+                    RootPanel.get().remove(buffer);
+                } else {
+                    // a hidden drawer can be changed in place.
+                    drawer.setWidget(widgetCopyOfPaintable);
+                    paintable.updateFromUIDL(drawerUIDL, client);
+                }
 
                 if (oldDrawerContent != null) {
                     client.unregisterPaintable(oldDrawerContent);
                 }
 
-                final boolean wasVisible = isDrawerVisible();
-                setDrawerVisible(true);
-                paintable.updateFromUIDL(drawerUIDL, client);
-                setDrawerVisible(wasVisible);
-
                 if (calculateDrawerHeight) {
                     /*
-                     * Since we have a new component, let's recalculate its
-                     * size, and do the appropriate animagication.
+                     * Since we have a new component, let's use its size, and
+                     * do the appropriate animagication.
                      */
-                    drawerHeight = -1;
+                    if (requiredHeight != -1) {
+                        drawerHeight = boundHeight(requiredHeight);
+                    } else {
+                        drawerHeight = -1;
+                    }
                     adjustForAutoDimensions();
                 }
 
@@ -316,15 +710,37 @@ public class VDrawer extends Composite implements Paintable, Container,
                 animate = uidl.getBooleanAttribute(ATTRIBUTE_ANIMATE__BOOLEAN);
                 final boolean contentIsVisible = uidl
                         .getBooleanVariable(VARIABLE_DRAWERVISIBLE__BOOLEAN);
+                serverDrawerOpen = contentIsVisible;
 
-                if (animate) {
+                if (togglePending
+                        || (runningAnimation instanceof DrawerAnimation
+                                && contentIsVisible == drawerOpen)) {
+                    /*
+                     * The client is already animating towards this state, or
+                     * a newer one that will be sent to the server shortly.
+                     */
+                } else if (waitingForContent && contentIsVisible
+                        && !contentPending) {
+                    // the content the drawer was opened for has arrived.
+                    waitingForContent = false;
+                    DeferredCommand.addCommand(new Command() {
+                        public void execute() {
+                            animateDrawer(true);
+                        }
+                    });
+                } else if (animate && contentIsVisible != drawerOpen) {
+                    drawerOpen = contentIsVisible;
                     DeferredCommand.addCommand(new Command() {
                         public void execute() {
-                            new DrawerAnimation(contentIsVisible)
-                                    .run(animationDuration);
+                            animateDrawer(contentIsVisible);
                         }
                     });
                 } else {
+                    drawerOpen = contentIsVisible;
+                    if (runningAnimation != null) {
+                        runningAnimation.cancel();
+                    }
+
                     setDrawerVisible(contentIsVisible);
 
                     /*
@@ -332,35 +748,452 @@ public class VDrawer extends Composite implements Paintable, Container,
                      * right height for the drawer
                      */
                     if (contentIsVisible) {
-                        drawer.setHeight(drawerHeight + "px");
+                        measureDrawerHeight();
+                        setDrawerPanelHeight(drawerHeight + "px");
                     } else {
-                        drawer.setHeight("0px");
+                        setDrawerPanelHeight("0px");
                     }
                 }
 
-                captionIcon.setExpanded(contentIsVisible);
+                if (!drawerOpen) {
+                    waitingForContent = false;
+                }
+                captionIcon.setExpanded(drawerOpen);
             } else {
-                drawer.setHeight("0px");
+                serverDrawerOpen = uidl
+                        .getBooleanVariable(VARIABLE_DRAWERVISIBLE__BOOLEAN);
+                if (!togglePending) {
+                    drawerOpen = serverDrawerOpen;
+                }
+
+                setDrawerPanelHeight("0px");
                 setDrawerVisible(false);
                 captionIcon.setExpanded(false);
             }
         }
         // Util.notifyParentOfSizeChange(this, false);
 
+        if (!togglePending) {
+            // the server has closed any excess drawers on its own.
+            updateGroupState(false);
+        }
+
+        if (toggleStartMillis != -1 && !togglePending
+                && serverDrawerOpen == drawerOpen) {
+            /*
+             * The server has answered to the toggle. The measurement is sent
+             * along with the next request, instead of making one of its own.
+             */
+            final int latency = (int) (System.currentTimeMillis() - toggleStartMillis);
+            toggleStartMillis = -1;
+            client.updateVariable(uidlId, VARIABLE_TOGGLE_LATENCY__INT,
+                    latency, false);
+        }
+
         // hacky fix for the drawer area being visible upon first render
         updateCount++;
         if (updateCount == 1 && !isDrawerVisible()) {
-            drawer.setHeight("0px");
+            setDrawerPanelHeight("0px");
+        }
+
+        /*
+         * The carrier sends a variable along with every request, whatever
+         * causes it, so that the server can apply the work posted from other
+         * threads. It's sent from a hook that's run after each response, so
+         * the server doesn't need to paint the carrier again.
+         */
+        final boolean wasSyncCarrier = syncCarrier;
+        syncCarrier = uidl.hasAttribute(ATTRIBUTE_SYNC__BOOLEAN);
+        if (syncCarrier && !wasSyncCarrier && isAttached()) {
+            syncCarriers.add(this);
+            addPostRequestHook();
+        } else if (!syncCarrier && wasSyncCarrier) {
+            syncCarriers.remove(this);
         }
     }
 
+    /**
+     * <p>
+     * Toggle the drawer as a response to a click on the caption.
+     * </p>
+     * 
+     * <p>
+     * The drawer is animated right away, but the new state is sent to the
+     * server only after {@link #TOGGLE_COALESCE_MILLIS}. Further clicks within
+     * that time redirect the running animation, and only the final state is
+     * sent, if it differs from what the server knows.
+     * </p>
+     * 
+     * <p>
+     * If the content is still to be sent lazily, the drawer isn't animated to
+     * the placeholder's height. The opening is sent right away instead, and
+     * the drawer is animated once the content has arrived.
+     * </p>
+     */
     private void toggleDrawerVisibility() {
         if (uidlId != null && client != null && isAttached() && !disabled) {
-            client.updateVariable(uidlId, VARIABLE_DRAWERVISIBLE__BOOLEAN,
-                    !isDrawerVisible(), true);
+            drawerOpen = !drawerOpen;
+            waitingForContent = drawerOpen && contentPending;
+
+            if (drawerHasContents) {
+                if (!waitingForContent) {
+                    animateDrawer(drawerOpen);
+                }
+                captionIcon.setExpanded(drawerOpen);
+            }
+
+            updateGroupState(true);
+
+            togglePending = true;
+            if (waitingForContent) {
+                toggleSender.cancel();
+                toggleSender.run();
+            } else {
+                toggleSender.schedule(TOGGLE_COALESCE_MILLIS);
+            }
         }
     }
 
+    /**
+     * <p>
+     * Keep this drawer's group up to date with the drawer's state.
+     * </p>
+     * 
+     * <p>
+     * If this drawer was opened, and too many drawers in the group are open,
+     * the ones opened the longest time ago are closed.
+     * </p>
+     * 
+     * @param byUser
+     *            <code>true</code> if the user opened the drawer. The new
+     *            states of the closed drawers are then sent to the server
+     *            along with the next request.
+     */
+    private void updateGroupState(final boolean byUser) {
+        if (group == null) {
+            return;
+        }
+
+        List<VDrawer> openDrawers = openDrawersByGroup.get(group);
+        if (openDrawers == null) {
+            openDrawers = new ArrayList<VDrawer>();
+            openDrawersByGroup.put(group, openDrawers);
+        }
+
+        if (!drawerOpen || !drawerHasContents) {
+            openDrawers.remove(this);
+        } else if (!openDrawers.contains(this)) {
+            openDrawers.add(this);
+
+            while (openDrawers.size() > groupMaxOpen) {
+                openDrawers.remove(0).closeForGroup(byUser);
+            }
+        }
+    }
+
+    private void closeForGroup(final boolean notifyServer) {
+        if (drawerOpen && client != null) {
+            drawerOpen = false;
+            animateDrawer(false);
+            captionIcon.setExpanded(false);
+
+            if (notifyServer && !togglePending) {
+                serverDrawerOpen = false;
+                client.updateVariable(uidlId, VARIABLE_DRAWERVISIBLE__BOOLEAN,
+                        false, false);
+            }
+        }
+    }
+
+    private void leaveGroup() {
+        if (group != null) {
+            final List<VDrawer> openDrawers = openDrawersByGroup.get(group);
+            if (openDrawers != null) {
+                openDrawers.remove(this);
+                if (openDrawers.isEmpty()) {
+                    openDrawersByGroup.remove(group);
+                }
+            }
+            group = null;
+        }
+    }
+
+    /**
+     * Measure the height of the drawer's content, if it is calculated
+     * automatically and hasn't been measured yet.
+     */
+    private void measureDrawerHeight() {
+        unmeasuredDrawers.remove(this);
+
+        /*
+         * A closed drawer is only hidden with the visibility property, so its
+         * content is laid out, and can be measured as it is.
+         */
+        if (calculateDrawerHeight && drawerHeight == -1 && isAttached()
+                && drawer.getWidget() != null) {
+            drawerHeight = boundHeight(Util.getRequiredHeight(drawer
+                    .getWidget()));
+        }
+    }
+
+    /**
+     * Measure this drawer's height when the browser is idle, so that the first
+     * opening doesn't need to measure anything.
+     */
+    private void scheduleIdleMeasurement() {
+        if (unmeasuredDrawers.add(this) && unmeasuredDrawers.size() == 1) {
+            if (!requestIdleMeasurement()) {
+                idleMeasurer.schedule(IDLE_MEASUREMENT_DELAY_MILLIS);
+            }
+        }
+    }
+
+    private static void measureNextDrawer() {
+        unmeasuredDrawers.iterator().next().measureDrawerHeight();
+    }
+
+    /**
+     * Measure drawers for as long as the browser says it's idle, and continue
+     * in its next idle period, if any drawers are left.
+     * 
+     * @param deadline
+     *            The <code>IdleDeadline</code> the browser passed
+     */
+    private static void measureWhileIdle(final JavaScriptObject deadline) {
+        while (!unmeasuredDrawers.isEmpty() && getTimeRemaining(deadline) > 0) {
+            measureNextDrawer();
+        }
+
+        if (!unmeasuredDrawers.isEmpty()) {
+            requestIdleMeasurement();
+        }
+    }
+
+    /**
+     * @return <code>false</code> if the browser doesn't support
+     *         <code>requestIdleCallback</code>.
+     */
+    private static native boolean requestIdleMeasurement()
+    /*-{
+        if (!$wnd.requestIdleCallback) {
+            return false;
+        }
+        $wnd.requestIdleCallback($entry(function(deadline) {
+            @org.vaadin.henrik.drawer.widgetset.client.ui.VDrawer::measureWhileIdle(Lcom/google/gwt/core/client/JavaScriptObject;)(deadline);
+        }));
+        return true;
+    }-*/;
+
+    private static native double getTimeRemaining(
+            final JavaScriptObject deadline)
+    /*-{
+        return deadline.timeRemaining();
+    }-*/;
+
+    /**
+     * @return <code>true</code> iff this drawer is so far outside the
+     *         browser's viewport, that it won't be scrolled into view soon.
+     */
+    private boolean isFarOutsideViewport() {
+        if (!isAttached()) {
+            return false;
+        }
+
+        final int viewportHeight = Window.getClientHeight();
+        final int margin = (int) (viewportHeight * OFFSCREEN_MARGIN_VIEWPORTS);
+        final int top = getAbsoluteTop() - Window.getScrollTop();
+        final int bottom = top + getOffsetHeight();
+        return bottom < -margin || top > viewportHeight + margin;
+    }
+
+    private void deferLayout() {
+        if (!deferredLayouts.contains(this)) {
+            deferredLayouts.add(this);
+        }
+
+        if (!viewportHandlersAdded) {
+            viewportHandlersAdded = true;
+            Window.addWindowScrollHandler(new Window.ScrollHandler() {
+                public void onWindowScroll(final Window.ScrollEvent event) {
+                    scheduleDeferredLayoutCheck();
+                }
+            });
+            Window.addResizeHandler(new ResizeHandler() {
+                public void onResize(final ResizeEvent event) {
+                    scheduleDeferredLayoutCheck();
+                }
+            });
+        }
+
+        /*
+         * Scroll events don't bubble, so the view, which scrolls its own
+         * element, and any panels around this drawer, are listened to
+         * separately.
+         */
+        for (Widget parent = getParent(); parent != null; parent = parent
+                .getParent()) {
+            if ((parent instanceof VView || parent instanceof VPanel)
+                    && !parent.getElement().getPropertyBoolean(
+                            SCROLL_HANDLED_PROPERTY)) {
+                parent.getElement().setPropertyBoolean(
+                        SCROLL_HANDLED_PROPERTY, true);
+                parent.addDomHandler(deferredLayoutScrollHandler, ScrollEvent
+                        .getType());
+            }
+        }
+    }
+
+    private static void scheduleDeferredLayoutCheck() {
+        if (!deferredLayoutCheckScheduled && !deferredLayouts.isEmpty()) {
+            deferredLayoutCheckScheduled = true;
+            deferredLayoutChecker.schedule(DEFERRED_LAYOUT_CHECK_DELAY_MILLIS);
+        }
+    }
+
+    private static void runDeferredLayouts() {
+        if (deferredLayouts.isEmpty()) {
+            return;
+        }
+
+        /*
+         * Find all the drawers in view before laying any of them out, so that
+         * the positions are read from one layout of the page.
+         */
+        final List<VDrawer> inView = new ArrayList<VDrawer>();
+        for (final VDrawer drawer : deferredLayouts) {
+            if (!drawer.isFarOutsideViewport()) {
+                inView.add(drawer);
+            }
+        }
+
+        deferredLayouts.removeAll(inView);
+        for (final VDrawer drawer : inView) {
+            if (drawer.isDrawerVisible()) {
+                drawer.layoutToContents();
+                Util.notifyParentOfSizeChange(drawer, false);
+            }
+        }
+    }
+
+    @Override
+    protected void onAttach() {
+        super.onAttach();
+        if (syncCarrier && !syncCarriers.contains(this)) {
+            syncCarriers.add(this);
+            addPostRequestHook();
+        }
+    }
+
+    @Override
+    protected void onDetach() {
+        syncCarriers.remove(this);
+        deferredLayouts.remove(this);
+        unmeasuredDrawers.remove(this);
+        leaveGroup();
+        super.onDetach();
+    }
+
+    /**
+     * Have {@link #runAfterResponse(String)} called after each response, using
+     * the hooks that {@link ApplicationConnection} runs.
+     */
+    private static void addPostRequestHook() {
+        if (!postRequestHookAdded) {
+            postRequestHookAdded = true;
+            addPostRequestHookImpl();
+        }
+    }
+
+    private static native void addPostRequestHookImpl()
+    /*-{
+        if (!$wnd.vaadin.postRequestHooks) {
+            $wnd.vaadin.postRequestHooks = new Object();
+        }
+        $wnd.vaadin.postRequestHooks.drawerSync = function(appId) {
+            @org.vaadin.henrik.drawer.widgetset.client.ui.VDrawer::runAfterResponse(Ljava/lang/String;)(appId);
+        };
+    }-*/;
+
+    /**
+     * Queue the sync variable of the carriers of an application, so that it's
+     * sent along with the next request.
+     * 
+     * @param applicationId
+     *            The root panel id of the application that got the response
+     */
+    private static void runAfterResponse(final String applicationId) {
+        for (final VDrawer carrier : syncCarriers) {
+            if (carrier.client != null
+                    && applicationId.equals(carrier.client.getConfiguration()
+                            .getRootPanelId())
+                    && carrier.canSendVariables()) {
+                carrier.client.updateVariable(carrier.uidlId,
+                        VARIABLE_SYNC__BOOLEAN, true, false);
+            }
+        }
+    }
+
+    /**
+     * @return <code>false</code> if the server would ignore this drawer's
+     *         variables, because it's disabled or hidden.
+     */
+    private boolean canSendVariables() {
+        if (disabled || uidlId == null || !isAttached()) {
+            return false;
+        }
+        for (Widget widget = this; widget != null; widget = widget.getParent()) {
+            if (!widget.isVisible()) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    /**
+     * Animate the drawer open or closed, starting from its current height. A
+     * running animation is replaced.
+     */
+    private void animateDrawer(final boolean expand) {
+        if (deferredLayouts.remove(this) && calculateDrawerHeight) {
+            // the content has changed since the height was measured.
+            drawerHeight = -1;
+        }
+
+        if (expand) {
+            measureDrawerHeight();
+        }
+
+        if (isFarOutsideViewport()) {
+            // nobody would see the animation, so jump to the end.
+            if (runningAnimation != null) {
+                runningAnimation.cancel();
+            }
+            setDrawerVisible(expand);
+            setDrawerPanelHeight((expand ? drawerHeight : 0) + "px");
+            Util.notifyParentOfSizeChange(this, false);
+            return;
+        }
+
+        final int fromHeight = isDrawerVisible() ? drawer.getOffsetHeight()
+                : 0;
+        if (runningAnimation != null) {
+            runningAnimation.cancel();
+        }
+
+        final int toHeight = expand ? drawerHeight : 0;
+        final int duration;
+        if (drawerHeight > 0) {
+            // a partial distance gets a partial duration
+            duration = animationDuration * Math.abs(toHeight - fromHeight)
+                    / drawerHeight;
+        } else {
+            duration = animationDuration;
+        }
+
+        runningAnimation = new DrawerAnimation(expand, fromHeight);
+        runningAnimation.run(duration);
+    }
+
     /**
      * <p>
      * Fix the drawer's height.
@@ -380,40 +1213,50 @@ public class VDrawer extends Composite implements Paintable, Container,
                  */
 
                 if (drawerHeight == -1) {
-                    final boolean wasVisible = isDrawerVisible();
-                    setDrawerVisible(true);
-                    drawerHeight = Util.getRequiredHeight(drawer.getWidget());
-                    setDrawerVisible(wasVisible);
+                    if (drawerOpen) {
+                        measureDrawerHeight();
+                    } else {
+                        // not needed until opened, so measure when idle.
+                        scheduleIdleMeasurement();
+                    }
                 }
 
-                if (isDrawerVisible()) {
-                    final int toHeight = drawer.getWidget().getOffsetHeight();
+                if (isDrawerVisible()
+                        && !(runningAnimation instanceof DrawerAnimation)) {
+                    /*
+                     * A running open or close animation goes to the measured
+                     * height by itself, but a resize is replaced.
+                     */
+                    final int toHeight = boundHeight(drawer.getWidget()
+                            .getOffsetHeight());
                     final int toWidth = drawer.getWidget().getOffsetWidth();
+                    if (runningAnimation != null) {
+                        runningAnimation.cancel();
+                    }
 
-                    if (animate) {
+                    if (animate && !isFarOutsideViewport()) {
                         final int fromHeight = drawer.getOffsetHeight();
                         final int fromWidth = drawer.getOffsetWidth();
-                        new Animation() {
+                        runningAnimation = new SizeAnimation() {
                             @Override
-                            protected void onUpdate(final double progress) {
+                            protected void updateSize(final double progress) {
                                 final long grownHeight = Math
                                         .round((toHeight - fromHeight)
                                                 * progress);
-                                drawer.setHeight((fromHeight + grownHeight)
+                                setDrawerPanelHeight((fromHeight + grownHeight)
                                         + "px");
 
                                 final long grownWidth = Math
                                         .round((toWidth - fromWidth) * progress);
-                                drawer.setWidth((fromWidth + grownWidth) + "px");
-
-                                Util.notifyParentOfSizeChange(VDrawer.this,
-                                        false);
+                                setDrawerPanelWidth((fromWidth + grownWidth)
+                                        + "px");
                             }
-                        }.run(animationDuration / 2);
+                        };
+                        runningAnimation.run(animationDuration / 2);
 
                     } else {
-                        drawer.setHeight(toHeight + "px");
-                        drawer.setWidth(toWidth + "px");
+                        setDrawerPanelHeight(toHeight + "px");
+                        setDrawerPanelWidth(toWidth + "px");
                     }
                 }
             }
@@ -423,13 +1266,11 @@ public class VDrawer extends Composite implements Paintable, Container,
                  * The width of the header needs to be calculated, if the
                  * component has no explicit width, or the header width will not
                  * be the same when the drawer is visible and when it's hidden.
+                 * A hidden drawer is still laid out, so the content can be
+                 * measured as it is.
                  */
-
-                final boolean wasVisible = isDrawerVisible();
-                setDrawerVisible(true);
-                captionPanel.setWidth(drawer.getWidget().getOffsetWidth()
+                setCaptionPanelWidth(drawer.getWidget().getOffsetWidth()
                         + "px");
-                setDrawerVisible(wasVisible);
             }
         }
     }
@@ -453,7 +1294,7 @@ public class VDrawer extends Composite implements Paintable, Container,
         }
 
         if (calculateDrawerHeight) {
-            finalHeight = Math.max(childHeight, drawerHeight);
+            finalHeight = boundHeight(Math.max(childHeight, drawerHeight));
         } else {
             finalHeight = drawerHeight;
         }
@@ -473,24 +1314,169 @@ public class VDrawer extends Composite implements Paintable, Container,
     }
 
     public boolean requestLayout(final Set<Paintable> children) {
-        if (isDrawerVisible()) {
-            if (calculateDrawerHeight) {
-                final int requiredHeight = Util.getRequiredHeight(drawer
-                        .getWidget());
-                drawer.setHeight(requiredHeight + "px");
+        if (frozenContentHeight != null) {
+            // the content is laid out once the animation is done.
+            layoutRequestedWhileFrozen = true;
+            return true;
+        } else if (followedAnimations > 0) {
+            // the size is fixed once the nested animations are done.
+            return true;
+        } else if (isDrawerVisible()) {
+            if (isFarOutsideViewport()) {
+                // nobody will see it, so lay out when scrolled into view.
+                deferLayout();
+                return true;
             }
 
-            if (calculateCaptionWidth) {
-                final int requiredWidth = Util.getRequiredWidth(drawer
-                        .getWidget());
-                captionPanel.setWidth(requiredWidth + "px");
-            }
+            layoutToContents();
             return false;
         } else {
+            if (calculateDrawerHeight && drawerHeight != -1) {
+                // the measured height is stale, measure it again when idle.
+                drawerHeight = -1;
+                scheduleIdleMeasurement();
+            }
             return true;
         }
     }
 
+    private void layoutToContents() {
+        if (calculateDrawerHeight) {
+            final int requiredHeight = boundHeight(Util
+                    .getRequiredHeight(drawer.getWidget()));
+            setDrawerPanelHeight(requiredHeight + "px");
+        }
+
+        if (calculateCaptionWidth) {
+            final int requiredWidth = Util.getRequiredWidth(drawer.getWidget());
+            setCaptionPanelWidth(requiredWidth + "px");
+        }
+    }
+
+    /**
+     * <p>
+     * Fix the content's size for the duration of an animation, so that only
+     * the drawer panel around it is resized, and the content doesn't need to
+     * be laid out on each frame.
+     * </p>
+     * 
+     * @param height
+     *            The height, in pixels, to fix the content to.
+     */
+    private void freezeContent(final int height) {
+        final Widget content = drawer.getWidget();
+        if (content == null || frozenContentHeight != null) {
+            return;
+        }
+
+        final Style style = content.getElement().getStyle();
+        final int width = content.getOffsetWidth();
+        frozenContentHeight = style.getProperty("height");
+        frozenContentWidth = style.getProperty("width");
+        style.setProperty("height", height + "px");
+        style.setProperty("width", width + "px");
+    }
+
+    /** Let the content be laid out normally again, in a single pass. */
+    private void unfreezeContent() {
+        final Widget content = drawer.getWidget();
+        if (content == null || frozenContentHeight == null) {
+            return;
+        }
+
+        final Style style = content.getElement().getStyle();
+        style.setProperty("height", frozenContentHeight);
+        style.setProperty("width", frozenContentWidth);
+        frozenContentHeight = null;
+        frozenContentWidth = null;
+
+        if (content instanceof Paintable) {
+            client.handleComponentRelativeSize(content);
+        }
+
+        if (layoutRequestedWhileFrozen) {
+            // the layouts asked for during the animation, all in one.
+            layoutRequestedWhileFrozen = false;
+            if (isDrawerVisible()) {
+                layoutToContents();
+                Util.notifyParentOfSizeChange(this, false);
+            } else if (calculateDrawerHeight) {
+                drawerHeight = -1;
+                scheduleIdleMeasurement();
+            }
+        }
+    }
+
+    /**
+     * <p>
+     * Called when this drawer starts animating its size.
+     * </p>
+     * 
+     * <p>
+     * If this drawer is inside another drawer that can follow the animation,
+     * the outer drawer lets the browser size it during the animation. This
+     * way, the outer drawers don't re-measure themselves on each frame, and
+     * the parent of the outermost one isn't notified on each frame. Any
+     * layouts between the drawers are still notified, since they may size
+     * themselves explicitly.
+     * </p>
+     * 
+     * @return The outer drawer that follows the animation, or
+     *         <code>null</code> if the parent needs to be notified normally.
+     */
+    private VDrawer startNestedAnimation() {
+        final VDrawer outer = getOuterDrawer();
+        if (outer != null && outer.startFollowingNestedAnimation()) {
+            return outer;
+        }
+        return null;
+    }
+
+    /** @return The nearest drawer this drawer is in, or <code>null</code>. */
+    private VDrawer getOuterDrawer() {
+        for (Widget parent = getParent(); parent != null; parent = parent
+                .getParent()) {
+            if (parent instanceof VDrawer) {
+                return (VDrawer) parent;
+            }
+        }
+        return null;
+    }
+
+    /**
+     * @return <code>true</code> iff this drawer will follow the nested
+     *         animation, and {@link #stopFollowingNestedAnimation()} needs to
+     *         be called when it's done.
+     */
+    private boolean startFollowingNestedAnimation() {
+        if (!calculateDrawerHeight || maxDrawerHeight >= 0
+                || !isDrawerVisible()) {
+            return false;
+        }
+
+        if (followedAnimations == 0) {
+            setDrawerPanelHeight("");
+            followingOuterDrawer = startNestedAnimation();
+        }
+        followedAnimations++;
+        return true;
+    }
+
+    private void stopFollowingNestedAnimation() {
+        followedAnimations--;
+        if (followedAnimations == 0) {
+            layoutToContents();
+
+            if (followingOuterDrawer != null) {
+                followingOuterDrawer.stopFollowingNestedAnimation();
+                followingOuterDrawer = null;
+            } else {
+                // the outermost drawer tells its parent, once.
+                Util.notifyParentOfSizeChange(this, false);
+            }
+        }
+    }
+
     public void updateCaption(final Paintable component, final UIDL uidl) {
         /*
          * Since the caption panel doubles as the component caption, this needs
@@ -513,10 +1499,16 @@ public class VDrawer extends Composite implements Paintable, Container,
     }
 
     private void updateCaptionInternal() {
+        final String caption;
         if (componentCaptionIsVisible && componentCaption != null) {
-            captionLabel.setText(componentCaption);
+            caption = componentCaption;
         } else {
-            captionLabel.setText(defaultCaption);
+            caption = defaultCaption;
+        }
+
+        if (!caption.equals(shownCaption)) {
+            shownCaption = caption;
+            captionLabel.setText(caption);
         }
     }
 
@@ -534,14 +1526,68 @@ public class VDrawer extends Composite implements Paintable, Container,
         updateCaptionInternal();
     }
 
+    /**
+     * <p>
+     * Limit an automatically calculated drawer height to the maximum height,
+     * if there is one.
+     * </p>
+     * 
+     * <p>
+     * The drawer's content is made scrollable, if it doesn't fit.
+     * </p>
+     * 
+     * @param requiredHeight
+     *            The height the drawer's content needs, in pixels.
+     * @return The height the drawer should have, in pixels.
+     */
+    private int boundHeight(final int requiredHeight) {
+        if (maxDrawerHeight >= 0 && requiredHeight > maxDrawerHeight) {
+            setDrawerPanelOverflow("auto");
+            return maxDrawerHeight;
+        } else {
+            setDrawerPanelOverflow("");
+            return requiredHeight;
+        }
+    }
+
     private boolean isDrawerVisible() {
-        return !drawer.getElement().getStyle().getProperty("visibility")
-                .equals("hidden");
+        return drawerPanelVisible;
     }
 
     private void setDrawerVisible(final boolean visible) {
-        drawer.getElement().getStyle()
-                .setProperty("visibility", visible ? "visible" : "hidden");
+        if (visible != drawerPanelVisible) {
+            drawerPanelVisible = visible;
+            drawer.getElement().getStyle()
+                    .setProperty("visibility", visible ? "visible" : "hidden");
+        }
+    }
+
+    private void setDrawerPanelHeight(final String height) {
+        if (!height.equals(drawerPanelHeight)) {
+            drawerPanelHeight = height;
+            drawer.setHeight(height);
+        }
+    }
+
+    private void setDrawerPanelWidth(final String width) {
+        if (!width.equals(drawerPanelWidth)) {
+            drawerPanelWidth = width;
+            drawer.setWidth(width);
+        }
+    }
+
+    private void setDrawerPanelOverflow(final String overflow) {
+        if (!overflow.equals(drawerPanelOverflow)) {
+            drawerPanelOverflow = overflow;
+            drawer.getElement().getStyle().setProperty("overflow", overflow);
+        }
+    }
+
+    private void setCaptionPanelWidth(final String width) {
+        if (!width.equals(captionPanelWidth)) {
+            captionPanelWidth = width;
+            captionPanel.setWidth(width);
+        }
     }
 
     public void add(final Widget w) {
@@ -564,7 +1610,7 @@ public class VDrawer extends Composite implements Paintable, Container,
     public void setWidth(final String width) {
         super.setWidth(width);
 
-        drawer.setWidth(width);
-        captionPanel.setWidth(width);
+        setDrawerPanelWidth(width);
+        setCaptionPanelWidth(width);
     }
 }
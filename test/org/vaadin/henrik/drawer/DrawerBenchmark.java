@@ -0,0 +1,136 @@
+package org.vaadin.henrik.drawer;
+
+import java.io.File;
+import java.io.FileWriter;
+import java.io.IOException;
+import java.io.PrintWriter;
+import java.util.ArrayList;
+import java.util.List;
+
+import com.vaadin.Application;
+import com.vaadin.ui.Button;
+import com.vaadin.ui.Button.ClickEvent;
+import com.vaadin.ui.CssLayout;
+import com.vaadin.ui.HorizontalLayout;
+import com.vaadin.ui.Label;
+import com.vaadin.ui.Layout;
+import com.vaadin.ui.VerticalLayout;
+import com.vaadin.ui.Window;
+
+/**
+ * <p>
+ * A manual benchmark for the client side of {@link Drawer}, with 1 to 1000
+ * drawers on one page. Nothing is measured automatically: create the drawers,
+ * toggle them, and read the results from the browser.
+ * </p>
+ * 
+ * <p>
+ * Open the application with <tt>?debug</tt> to see the client's processing
+ * time for each response in the debug console. Layout and forced reflows are
+ * best seen in the browser's own profiler. Caption clicks are measured with
+ * {@link Drawer#setToggleLatencyTracked(boolean)}, and "Write report" writes
+ * their percentiles as tab separated values into
+ * <tt>drawer-benchmark.txt</tt> in the JVM's temporary directory.
+ * </p>
+ */
+@SuppressWarnings("serial")
+public class DrawerBenchmark extends Application {
+
+    private static final int[] DRAWER_COUNTS = { 1, 10, 100, 1000 };
+
+    private final Layout drawerLayout = new CssLayout();
+    private final List<Drawer> drawers = new ArrayList<Drawer>();
+    private final Label status = new Label();
+
+    @Override
+    public void init() {
+        final VerticalLayout layout = new VerticalLayout();
+        setMainWindow(new Window("Drawer benchmark", layout));
+
+        final HorizontalLayout buttons = new HorizontalLayout();
+        for (final int count : DRAWER_COUNTS) {
+            buttons.addComponent(new Button(count + " drawers",
+                    new Button.ClickListener() {
+                        public void buttonClick(final ClickEvent event) {
+                            createDrawers(count);
+                        }
+                    }));
+        }
+
+        buttons.addComponent(new Button("Toggle all",
+                new Button.ClickListener() {
+                    public void buttonClick(final ClickEvent event) {
+                        toggleDrawers(false);
+                    }
+                }));
+
+        buttons.addComponent(new Button("Toggle all animated",
+                new Button.ClickListener() {
+                    public void buttonClick(final ClickEvent event) {
+                        toggleDrawers(true);
+                    }
+                }));
+
+        buttons.addComponent(new Button("Write report",
+                new Button.ClickListener() {
+                    public void buttonClick(final ClickEvent event) {
+                        writeReport();
+                    }
+                }));
+
+        layout.addComponent(buttons);
+        layout.addComponent(status);
+        layout.addComponent(drawerLayout);
+    }
+
+    private void createDrawers(final int count) {
+        drawerLayout.removeAllComponents();
+        drawers.clear();
+        ToggleLatencyHistogram.getApplicationHistogram(this).reset();
+
+        for (int i = 0; i < count; i++) {
+            final VerticalLayout content = new VerticalLayout();
+            content.addComponent(new Label("Content of drawer " + i));
+            content.addComponent(new Button("Button " + i));
+
+            final Drawer drawer = new Drawer("Drawer " + i, content);
+            drawer.setWidth("300px");
+            drawer.setToggleLatencyTracked(true);
+            drawers.add(drawer);
+            drawerLayout.addComponent(drawer);
+        }
+
+        status.setValue(count + " drawers");
+    }
+
+    private void toggleDrawers(final boolean animate) {
+        for (final Drawer drawer : drawers) {
+            drawer.toggleDrawer(animate);
+        }
+    }
+
+    private void writeReport() {
+        final File file = new File(System.getProperty("java.io.tmpdir"),
+                "drawer-benchmark.txt");
+        final ToggleLatencyHistogram latencies = ToggleLatencyHistogram
+                .getApplicationHistogram(this);
+
+        try {
+            final PrintWriter writer = new PrintWriter(new FileWriter(file));
+            try {
+                writer.println("# clicks\tdrawers\tp50\tp90\tp99\tmax");
+                writer.println(latencies.getTotalCount() + "\t"
+                        + drawers.size() + "\t"
+                        + latencies.getValueAtPercentile(50) + "\t"
+                        + latencies.getValueAtPercentile(90) + "\t"
+                        + latencies.getValueAtPercentile(99) + "\t"
+                        + latencies.getMaxValue());
+            } finally {
+                writer.close();
+            }
+            status.setValue("Report written to " + file);
+        } catch (final IOException e) {
+            status.setValue("Could not write report: " + e.getMessage());
+        }
+    }
+}
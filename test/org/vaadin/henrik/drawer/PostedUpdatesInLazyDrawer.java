@@ -0,0 +1,80 @@
+package org.vaadin.henrik.drawer;
+
+import com.vaadin.Application;
+import com.vaadin.ui.Button;
+import com.vaadin.ui.Button.ClickEvent;
+import com.vaadin.ui.Label;
+import com.vaadin.ui.ProgressIndicator;
+import com.vaadin.ui.VerticalLayout;
+import com.vaadin.ui.Window;
+
+/**
+ * <p>
+ * Test for updates posted from a background thread, when the first drawer to
+ * be attached is nested inside a closed lazy drawer, and is never painted.
+ * </p>
+ * 
+ * <p>
+ * The captions of both drawers should count up once a second, while the outer
+ * drawer is closed, too, and after it has been opened and closed again. The
+ * inner drawer's caption is only visible while the outer drawer is open.
+ * </p>
+ */
+@SuppressWarnings("serial")
+public class PostedUpdatesInLazyDrawer extends Application {
+
+    private volatile boolean running = true;
+
+    @Override
+    public void init() {
+        final VerticalLayout layout = new VerticalLayout();
+        setMainWindow(new Window("Posted updates in a lazy drawer", layout));
+
+        final Drawer inner = new Drawer("Inner 0", new Label("Inner content"));
+
+        final VerticalLayout outerContent = new VerticalLayout();
+        outerContent.addComponent(new Label("Outer content"));
+        outerContent.addComponent(inner);
+
+        final Drawer outer = new Drawer("Outer 0", outerContent);
+        outer.setLazyContent(true);
+
+        final ProgressIndicator poller = new ProgressIndicator();
+        poller.setIndeterminate(true);
+        poller.setPollingInterval(500);
+
+        layout.addComponent(outer);
+        layout.addComponent(poller);
+        layout.addComponent(new Button("Toggle the outer drawer",
+                new Button.ClickListener() {
+                    public void buttonClick(final ClickEvent event) {
+                        outer.toggleDrawer(true);
+                    }
+                }));
+
+        final Thread poster = new Thread() {
+            @Override
+            public void run() {
+                int count = 0;
+                while (running) {
+                    count++;
+                    outer.postDefaultCaption("Outer " + count);
+                    inner.postDefaultCaption("Inner " + count);
+                    try {
+                        Thread.sleep(1000);
+                    } catch (final InterruptedException e) {
+                        return;
+                    }
+                }
+            }
+        };
+        poster.setDaemon(true);
+        poster.start();
+    }
+
+    @Override
+    public void close() {
+        running = false;
+        super.close();
+    }
+}